@@ -0,0 +1,120 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import components.gamestats.GameStats;
+import components.gamestats.GameStats1L;
+import components.gamestats.GameStatsImporter;
+
+/**
+ * Command-line front end for {@link GameStatsImporter}.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li>{@code BulkImportTool <file> [threads]} imports the match log into a
+ * fresh {@link GameStats1L} and reports rows per second. Without
+ * {@code threads}, the import is repeated with 1, 2, 4, ... threads up to the
+ * number of available cores, to show how it scales.</li>
+ * <li>{@code BulkImportTool --generate <file> <rows> [games]} writes a
+ * synthetic match log to try it on.</li>
+ * </ul>
+ * </p>
+ */
+public final class BulkImportTool {
+
+    /**
+     * Default number of distinct games in a generated log.
+     */
+    private static final int DEFAULT_GAMES = 1000;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private BulkImportTool() {
+    }
+
+    /**
+     * Writes {@code rows} random plays over {@code games} games to
+     * {@code file}.
+     *
+     * @param file
+     *            the file to write
+     * @param rows
+     *            number of lines
+     * @param games
+     *            number of distinct games
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void generate(Path file, long rows, int games)
+            throws IOException {
+        String[] modes = { "Ranked", "Unrated", "Casual" };
+        String[] regions = { "NA", "EU", "AP" };
+        Random rnd = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8)) {
+            for (long i = 0; i < rows; i++) {
+                int g = rnd.nextInt(games);
+                out.write("Game" + g / 9 + "/" + modes[g % 3] + "/"
+                        + regions[g / 3 % 3]);
+                out.write(',');
+                out.write(Integer.toString(rnd.nextInt(100_000)));
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Imports {@code file} with {@code threads} threads and prints the result.
+     *
+     * @param file
+     *            the match log
+     * @param threads
+     *            number of parser threads
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static void run(Path file, int threads) throws IOException {
+        GameStats gs = new GameStats1L();
+        GameStatsImporter.Result r = GameStatsImporter.importFile(file, gs,
+                threads);
+        System.out.printf("%3d threads: %s%n", threads, r);
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args
+     *            see the class comment
+     * @throws IOException
+     *             if the file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("--generate")) {
+            int games = DEFAULT_GAMES;
+            if (args.length > 3) {
+                games = Integer.parseInt(args[3]);
+            }
+            generate(Path.of(args[1]), Long.parseLong(args[2]), games);
+            return;
+        }
+        if (args.length < 1) {
+            System.err.println("usage: BulkImportTool <file> [threads]");
+            System.err.println(
+                    "       BulkImportTool --generate <file> <rows> [games]");
+            return;
+        }
+        Path file = Path.of(args[0]);
+        if (args.length > 1) {
+            run(file, Integer.parseInt(args[1]));
+        } else {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                run(file, threads);
+            }
+        }
+    }
+}
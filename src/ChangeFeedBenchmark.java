@@ -0,0 +1,126 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import components.gamestats.GameStats;
+import components.gamestats.GameStats2;
+import components.gamestats.ObservableGameStats;
+
+/**
+ * Measures the cost that {@link ObservableGameStats} adds to {@code logGame}
+ * with 0, 1 and 100 subscribers.
+ * <p>
+ * Each run logs the same scores over a fixed set of games, with every
+ * subscriber listening to every kind of event, and reports the average CPU
+ * time per {@code logGame} call spent on the ingesting thread, alongside the
+ * wall-clock time (which, on a machine with few cores, also includes time the
+ * dispatcher thread takes away from ingestion). The time the dispatcher then
+ * needs to deliver the remaining events is reported separately.
+ * </p>
+ */
+public final class ChangeFeedBenchmark {
+
+    /**
+     * Number of {@code logGame} calls per run.
+     */
+    private static final int OPS = 2_000_000;
+
+    /**
+     * Number of distinct games.
+     */
+    private static final int GAMES = 1000;
+
+    /**
+     * Subscriber counts to measure.
+     */
+    private static final int[] SUBSCRIBERS = { 0, 1, 100 };
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ChangeFeedBenchmark() {
+    }
+
+    /**
+     * Logs {@code OPS} scores into {@code gs}.
+     *
+     * @param gs
+     *            the statistics to log into
+     * @param names
+     *            game names
+     * @return {wall-clock, ingesting-thread CPU} nanoseconds
+     */
+    private static long[] ingest(GameStats gs, String[] names) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long seed = 42;
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int r = (int) (seed >>> 33);
+            gs.logGame(names[r % GAMES], r % 100_000);
+        }
+        return new long[] { System.nanoTime() - start,
+                threads.getCurrentThreadCpuTime() - cpuStart };
+    }
+
+    /**
+     * Prints one result line.
+     *
+     * @param label
+     *            what was measured
+     * @param times
+     *            {wall-clock, CPU} nanoseconds for {@code OPS} calls
+     * @param extra
+     *            text to append
+     */
+    private static void report(String label, long[] times, String extra) {
+        System.out.printf("%-16s  %8.1f ns cpu  %8.1f ns wall%s%n", label,
+                (double) times[1] / OPS, (double) times[0] / OPS, extra);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            command-line arguments (ignored)
+     * @throws InterruptedException
+     *             if interrupted while waiting for delivery
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String[] names = new String[GAMES];
+        for (int i = 0; i < GAMES; i++) {
+            names[i] = "Game" + i;
+        }
+
+        // warm up both paths, then measure the bare kernel for reference
+        ingest(new GameStats2(GAMES), names);
+        try (ObservableGameStats gs = new ObservableGameStats(
+                new GameStats2(GAMES))) {
+            gs.subscribe(events -> {
+            });
+            ingest(gs, names);
+            gs.flush();
+        }
+        report("bare kernel", ingest(new GameStats2(GAMES), names), "");
+
+        for (int n : SUBSCRIBERS) {
+            AtomicLong delivered = new AtomicLong();
+            try (ObservableGameStats gs = new ObservableGameStats(
+                    new GameStats2(GAMES))) {
+                for (int s = 0; s < n; s++) {
+                    gs.subscribe(events -> delivered.addAndGet(events.size()));
+                }
+                long[] times = ingest(gs, names);
+                long drainStart = System.nanoTime();
+                gs.flush();
+                long drain = System.nanoTime() - drainStart;
+                report(n + " subscribers", times,
+                        String.format(
+                                "  (%d events, %d dropped, %.0f ms to drain)",
+                                delivered.get(), gs.droppedEvents(),
+                                drain / 1e6));
+            }
+        }
+    }
+}
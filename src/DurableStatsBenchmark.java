@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import components.gamestats.DurableGameStats;
+import components.gamestats.GameStats1L;
+
+/**
+ * Measures {@code logGame} throughput of {@link DurableGameStats} for several
+ * group-commit intervals.
+ * <p>
+ * A fixed number of writer threads log scores as fast as they can for a short
+ * period; each {@code logGame} returns only once its score is on disk. The
+ * benchmark prints the number of durable writes per second for each maximum
+ * commit delay, after a baseline run with a single writer, where every
+ * {@code fsync} carries exactly one record. In the grouped runs a commit is
+ * issued as soon as every writer has joined the batch, or when the delay
+ * expires.
+ * </p>
+ */
+public final class DurableStatsBenchmark {
+
+    /**
+     * Number of concurrent writer threads.
+     */
+    private static final int WRITERS = 16;
+
+    /**
+     * Duration of each measurement, in milliseconds.
+     */
+    private static final long RUN_MILLIS = 2000;
+
+    /**
+     * Maximum commit delays to measure, in microseconds.
+     */
+    private static final long[] DELAYS_MICROS = { 0, 100, 500, 2000, 10000 };
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private DurableStatsBenchmark() {
+    }
+
+    /**
+     * Runs one measurement.
+     *
+     * @param writers
+     *            number of writer threads
+     * @param maxBatchSize
+     *            maximum records per commit
+     * @param delayMicros
+     *            maximum commit delay
+     * @return durable writes per second
+     * @throws IOException
+     *             if the log cannot be written
+     * @throws InterruptedException
+     *             if interrupted while waiting for writers
+     */
+    private static double run(int writers, int maxBatchSize,
+            long delayMicros)
+            throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("gamestats-bench");
+        long[] counts = new long[writers];
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(), dir,
+                maxBatchSize, delayMicros, 0)) {
+            long end = System.currentTimeMillis() + RUN_MILLIS;
+            Thread[] threads = new Thread[writers];
+            for (int t = 0; t < writers; t++) {
+                final int id = t;
+                threads[t] = new Thread(() -> {
+                    String game = "Game" + (id % 4);
+                    long n = 0;
+                    while (System.currentTimeMillis() < end) {
+                        gs.logGame(game, (int) (n % 1000));
+                        n++;
+                    }
+                    counts[id] = n;
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        } finally {
+            DurableGameStats.delete(dir);
+        }
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        return total * 1000.0 / RUN_MILLIS;
+    }
+
+    /**
+     * Prints throughput for each commit delay.
+     *
+     * @param args
+     *            command-line arguments (ignored)
+     * @throws IOException
+     *             if the log cannot be written
+     * @throws InterruptedException
+     *             if interrupted while waiting for writers
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        System.out.printf("%d ms per run%n", RUN_MILLIS);
+        System.out.printf("%-28s  %14s%n", "configuration", "durable ops/s");
+        System.out.printf("%-28s  %14.0f%n", "1 writer, fsync per write",
+                run(1, 1, 0));
+        for (long delay : DELAYS_MICROS) {
+            System.out.printf("%-28s  %14.0f%n",
+                    WRITERS + " writers, max delay " + delay + "us",
+                    run(WRITERS, WRITERS, delay));
+        }
+    }
+}
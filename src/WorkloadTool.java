@@ -0,0 +1,283 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import components.gamestats.DurableGameStats;
+import components.gamestats.GameStats;
+import components.gamestats.GameStats1L;
+import components.gamestats.GameStats2;
+import components.gamestats.ObservableGameStats;
+import components.gamestats.WorkloadGenerator;
+import components.gamestats.WorkloadReplay;
+import components.gamestats.WorkloadTrace;
+import components.gamestats.WorkloadTrace.Operation;
+
+/**
+ * Command-line front end for {@link WorkloadGenerator} and
+ * {@link WorkloadReplay}, to compare {@link GameStats} implementations under
+ * a realistic access pattern.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li>{@code WorkloadTool generate <trace> [setting=value ...]} writes a
+ * synthetic trace to the file {@code trace}.</li>
+ * <li>{@code WorkloadTool replay <trace> [paced] [kernel ...]} replays the
+ * trace in {@code trace} against each kernel in turn.</li>
+ * <li>{@code WorkloadTool run [setting=value ...] [paced] [kernel ...]}
+ * generates a trace in memory and replays it.</li>
+ * </ul>
+ * The settings are {@code ops}, {@code seed}, {@code games}, {@code zipf},
+ * {@code reads} (the read fraction), {@code rate} (operations per second in
+ * calm periods), {@code burst} (the burst rate factor), {@code burstLength},
+ * {@code calmLength} and {@code players}, defaulting to those of
+ * {@link WorkloadGenerator} and to 1,000,000 operations with seed 42. The
+ * kernels are {@code 1L}, {@code 2}, {@code 2:<capacity>}, {@code durable} (a
+ * {@link DurableGameStats} over {@link GameStats2}) and {@code observable}
+ * (an {@link ObservableGameStats} over {@link GameStats2} with one
+ * subscriber), defaulting to {@code 1L 2}. Unless {@code paced} is given,
+ * each kernel first replays the trace once to warm up.
+ * </p>
+ */
+public final class WorkloadTool {
+
+    /**
+     * Default number of operations.
+     */
+    private static final int DEFAULT_OPS = 1_000_000;
+
+    /**
+     * Default seed.
+     */
+    private static final long DEFAULT_SEED = 42;
+
+    /**
+     * Latency percentiles to report.
+     */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private WorkloadTool() {
+    }
+
+    /**
+     * Builds a trace from {@code setting=value} arguments, ignoring the
+     * others.
+     *
+     * @param args
+     *            the arguments
+     * @return the generated trace
+     */
+    private static WorkloadTrace generate(List<String> args) {
+        int ops = DEFAULT_OPS;
+        long seed = DEFAULT_SEED;
+        double burst = WorkloadGenerator.DEFAULT_BURST_FACTOR;
+        int burstLength = WorkloadGenerator.DEFAULT_BURST_LENGTH;
+        int calmLength = WorkloadGenerator.DEFAULT_CALM_LENGTH;
+        for (String arg : args) {
+            if (arg.startsWith("ops=")) {
+                ops = Integer.parseInt(arg.substring(4));
+            } else if (arg.startsWith("seed=")) {
+                seed = Long.parseLong(arg.substring(5));
+            }
+        }
+        WorkloadGenerator gen = new WorkloadGenerator(seed);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (key.equals("games")) {
+                gen.games(Integer.parseInt(value));
+            } else if (key.equals("zipf")) {
+                gen.zipfExponent(Double.parseDouble(value));
+            } else if (key.equals("reads")) {
+                gen.readFraction(Double.parseDouble(value));
+            } else if (key.equals("rate")) {
+                gen.rate(Double.parseDouble(value));
+            } else if (key.equals("burst")) {
+                burst = Double.parseDouble(value);
+            } else if (key.equals("burstLength")) {
+                burstLength = Integer.parseInt(value);
+            } else if (key.equals("calmLength")) {
+                calmLength = Integer.parseInt(value);
+            } else if (key.equals("players")) {
+                gen.players(Integer.parseInt(value));
+            } else if (!key.equals("ops") && !key.equals("seed")) {
+                throw new IllegalArgumentException("unknown setting " + key);
+            }
+        }
+        gen.bursts(burst, burstLength, calmLength);
+        return gen.generate(ops);
+    }
+
+    /**
+     * Creates an empty instance of the named kernel.
+     *
+     * @param name
+     *            the kernel name, as in the class comment
+     * @param resources
+     *            what must be closed, last first, once the instance is no
+     *            longer needed; appended to
+     * @return the new instance
+     * @throws IOException
+     *             if the instance cannot create its files
+     */
+    private static GameStats create(String name, List<Closeable> resources)
+            throws IOException {
+        if (name.equals("1L")) {
+            return new GameStats1L();
+        }
+        if (name.equals("2") || name.startsWith("2:")) {
+            int capacity = GameStats2.DEFAULT_CAPACITY;
+            if (name.startsWith("2:")) {
+                capacity = Integer.parseInt(name.substring(2));
+            }
+            GameStats2 gs = new GameStats2(capacity);
+            resources.add(gs);
+            return gs;
+        }
+        if (name.equals("durable")) {
+            Path dir = Files.createTempDirectory("workload");
+            resources.add(() -> DurableGameStats.delete(dir));
+            GameStats2 kernel = new GameStats2();
+            resources.add(kernel);
+            DurableGameStats gs = new DurableGameStats(kernel, dir);
+            resources.add(gs);
+            return gs;
+        }
+        if (name.equals("observable")) {
+            GameStats2 kernel = new GameStats2();
+            resources.add(kernel);
+            ObservableGameStats gs = new ObservableGameStats(kernel);
+            resources.add(gs);
+            gs.subscribe(events -> {
+            });
+            return gs;
+        }
+        throw new IllegalArgumentException("unknown kernel " + name);
+    }
+
+    /**
+     * Replays {@code trace} against a fresh instance of the named kernel.
+     *
+     * @param trace
+     *            the trace
+     * @param name
+     *            the kernel name
+     * @param paced
+     *            whether to replay at the trace's arrival times
+     * @return the measurements
+     * @throws IOException
+     *             if the kernel's files cannot be created or removed
+     */
+    private static WorkloadReplay.Result replay(WorkloadTrace trace,
+            String name, boolean paced) throws IOException {
+        List<Closeable> resources = new ArrayList<>();
+        try {
+            GameStats gs = create(name, resources);
+            return WorkloadReplay.run(trace, gs, paced);
+        } finally {
+            for (int i = resources.size() - 1; i >= 0; i--) {
+                resources.get(i).close();
+            }
+        }
+    }
+
+    /**
+     * Replays {@code trace} against each kernel and prints the results.
+     *
+     * @param trace
+     *            the trace
+     * @param kernels
+     *            kernel names
+     * @param paced
+     *            whether to replay at the trace's arrival times
+     * @throws IOException
+     *             if a kernel's files cannot be created or removed
+     */
+    private static void compare(WorkloadTrace trace, List<String> kernels,
+            boolean paced) throws IOException {
+        System.out.println(trace);
+        for (String name : kernels) {
+            if (!paced) {
+                replay(trace, name, false);
+            }
+            WorkloadReplay.Result r = replay(trace, name, paced);
+            System.out.printf("%n%s: %s%n", name, r);
+            System.out.printf("  %-15s %9s", "latency (us)", "count");
+            for (double p : PERCENTILES) {
+                System.out.printf(" %9s", p == 100 ? "max" : "p" + p);
+            }
+            System.out.println();
+            for (Operation op : Operation.values()) {
+                if (r.operations(op) == 0) {
+                    continue;
+                }
+                System.out.printf("  %-15s %9d", op, r.operations(op));
+                for (double p : PERCENTILES) {
+                    System.out.printf(" %9.1f", r.latency(op, p) / 1e3);
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args
+     *            see the class comment
+     * @throws IOException
+     *             if a trace or a kernel's files cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || (!args[0].equals("run") && args.length < 2)) {
+            System.err.println("usage: WorkloadTool generate <trace>"
+                    + " [setting=value ...]");
+            System.err.println("       WorkloadTool replay <trace> [paced]"
+                    + " [kernel ...]");
+            System.err.println("       WorkloadTool run [setting=value ...]"
+                    + " [paced] [kernel ...]");
+            return;
+        }
+        List<String> settings = new ArrayList<>();
+        List<String> kernels = new ArrayList<>();
+        boolean paced = false;
+        int first = 1;
+        if (!args[0].equals("run")) {
+            first = 2;
+        }
+        for (int i = first; i < args.length; i++) {
+            if (args[i].contains("=")) {
+                settings.add(args[i]);
+            } else if (args[i].equals("paced")) {
+                paced = true;
+            } else {
+                kernels.add(args[i]);
+            }
+        }
+        if (kernels.isEmpty()) {
+            kernels.add("1L");
+            kernels.add("2");
+        }
+
+        if (args[0].equals("generate")) {
+            WorkloadTrace trace = generate(settings);
+            trace.write(Path.of(args[1]));
+            System.out.println(trace);
+        } else if (args[0].equals("replay")) {
+            compare(WorkloadTrace.read(Path.of(args[1])), kernels, paced);
+        } else if (args[0].equals("run")) {
+            compare(generate(settings), kernels, paced);
+        } else {
+            System.err.println("unknown command " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,887 @@
+package components.gamestats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import components.set.Set;
+
+/**
+ * A {@code GameStats} that survives crashes by writing every change to a
+ * write-ahead log before acknowledging it.
+ * <p>
+ * All statistics are held by a wrapped kernel (any {@code GameStats}
+ * implementation). Each {@link #logGame(String, int)} applies the score to the
+ * kernel, appends a record to an in-memory batch, and blocks until a single
+ * background committer thread has written and forced that batch to disk.
+ * Concurrent writers therefore share one {@code fsync} (group commit). The
+ * committer waits at most {@code maxDelayMicros} after the first record of a
+ * batch for more writers to arrive, and commits early once
+ * {@code maxBatchSize} records are pending. Readers may observe a score
+ * while its {@code logGame} call is still waiting for the commit.
+ * </p>
+ * <p>
+ * On construction the kernel is cleared and rebuilt from the last checkpoint
+ * and the log. A checkpoint is taken automatically every
+ * {@code checkpointInterval} records (or on {@link #checkpoint()}). Writers
+ * are held off only while the log moves on to a new segment; a background
+ * checkpointer thread then folds the previous checkpoint and the finished
+ * segments into a new checkpoint and deletes them. It reads the files, not
+ * the kernel, so a checkpoint neither blocks readers and writers nor, over a
+ * caching kernel such as {@link GameStats2}, disturbs what is cached.
+ * </p>
+ * <p>
+ * Instances are safe for use by multiple threads. They must be
+ * {@linkplain #close() closed} to release the log file; until then no other
+ * instance, in this process or another, can open the same directory. Game and
+ * player names longer than {@link #MAX_NAME_BYTES} are refused with an
+ * {@code IllegalArgumentException} before anything is changed.
+ * </p>
+ */
+public final class DurableGameStats extends GameStatsSecondary
+        implements Closeable {
+
+    /**
+     * Default maximum number of records per group commit.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+
+    /**
+     * Default number of records between automatic checkpoints.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1_000_000;
+
+    /**
+     * Longest game or player name, in UTF-8 bytes, that can be logged.
+     */
+    public static final int MAX_NAME_BYTES = WriteAheadLog.MAX_NAME_BYTES;
+
+    /**
+     * Initial capacity of the batch buffers.
+     */
+    private static final int INITIAL_BATCH_BYTES = 1 << 16;
+
+    /**
+     * Statistics being made durable.
+     */
+    private final GameStats kernel;
+
+    /**
+     * Log and checkpoint files.
+     */
+    private final WriteAheadLog wal;
+
+    /**
+     * Maximum number of records per group commit.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Maximum time a record waits for others to join its batch.
+     */
+    private final long maxDelayNanos;
+
+    /**
+     * Number of records between automatic checkpoints; 0 disables them.
+     */
+    private final long checkpointInterval;
+
+    /**
+     * Guards every field below, and the kernel.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when records are pending or a checkpoint is requested.
+     */
+    private final Condition work = this.lock.newCondition();
+
+    /**
+     * Signalled when a batch or a checkpoint has been made durable.
+     */
+    private final Condition committed = this.lock.newCondition();
+
+    /**
+     * Signalled when finished segments are ready to be checkpointed, or the
+     * committer has stopped.
+     */
+    private final Condition compactWork = this.lock.newCondition();
+
+    /**
+     * Records accepted but not yet handed to the committer.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+
+    /**
+     * Buffer the committer is (or was last) writing.
+     */
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+
+    /**
+     * Number of records in {@code pending}.
+     */
+    private int pendingRecords;
+
+    /**
+     * Time at which the first record in {@code pending} was accepted.
+     */
+    private long pendingSince;
+
+    /**
+     * LSN of the last record accepted.
+     */
+    private long lastLsn;
+
+    /**
+     * LSN of the last record known to be on stable storage.
+     */
+    private long durableLsn;
+
+    /**
+     * Records committed since the last checkpoint.
+     */
+    private long sinceCheckpoint;
+
+    /**
+     * Number of checkpoints taken so far.
+     */
+    private long checkpoints;
+
+    /**
+     * Whether a checkpoint has been requested by {@link #checkpoint()}.
+     */
+    private boolean checkpointRequested;
+
+    /**
+     * Whether the checkpointer is folding finished segments into a new
+     * checkpoint.
+     */
+    private boolean compacting;
+
+    /**
+     * Last segment generation the pending or running checkpoint covers.
+     */
+    private long compactThrough;
+
+    /**
+     * Last LSN the pending or running checkpoint covers.
+     */
+    private long compactLsn;
+
+    /**
+     * Whether the committer thread has stopped.
+     */
+    private boolean committerDone;
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    private boolean closed;
+
+    /**
+     * First I/O failure seen by the committer, if any.
+     */
+    private IOException failure;
+
+    /**
+     * Background thread writing batches and rotating the log.
+     */
+    private final Thread committer;
+
+    /**
+     * Background thread writing checkpoints.
+     */
+    private final Thread checkpointer;
+
+    /**
+     * Opens durable statistics in {@code dir} with default settings.
+     *
+     * @param kernel
+     *            the statistics to make durable; its contents are replaced
+     * @param dir
+     *            directory holding the log and checkpoint files
+     * @throws IOException
+     *             if the log cannot be opened or recovered, or another
+     *             instance has it open
+     */
+    public DurableGameStats(GameStats kernel, Path dir) throws IOException {
+        this(kernel, dir, DEFAULT_MAX_BATCH_SIZE, 0,
+                DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Opens durable statistics in {@code dir}, replaying the checkpoint and
+     * log found there into {@code kernel}.
+     *
+     * @param kernel
+     *            the statistics to make durable; its contents are replaced
+     * @param dir
+     *            directory holding the log and checkpoint files
+     * @param maxBatchSize
+     *            maximum number of records per group commit
+     * @param maxDelayMicros
+     *            maximum time, in microseconds, a record waits for others to
+     *            join its batch; 0 commits as soon as the disk is free
+     * @param checkpointInterval
+     *            number of records between automatic checkpoints; 0 disables
+     *            them
+     * @throws IOException
+     *             if the log cannot be opened or recovered, or another
+     *             instance has it open
+     * @requires kernel != null and dir != null and maxBatchSize > 0 and
+     *           maxDelayMicros >= 0 and checkpointInterval >= 0
+     */
+    public DurableGameStats(GameStats kernel, Path dir, int maxBatchSize,
+            long maxDelayMicros, long checkpointInterval) throws IOException {
+        assert kernel != null : "Violation of: kernel is not null";
+        assert dir != null : "Violation of: dir is not null";
+        assert maxBatchSize > 0 : "Violation of: maxBatchSize > 0";
+        assert maxDelayMicros >= 0 : "Violation of: maxDelayMicros >= 0";
+        assert checkpointInterval >= 0 : "Violation of: "
+                + "checkpointInterval >= 0";
+
+        this.kernel = kernel;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.checkpointInterval = checkpointInterval;
+
+        this.wal = new WriteAheadLog(dir);
+        try {
+            kernel.clear();
+            this.lastLsn = this.wal.recover(kernel);
+        } catch (IOException e) {
+            this.wal.close();
+            throw e;
+        }
+        this.durableLsn = this.lastLsn;
+
+        this.committer = new Thread(this::runCommitter,
+                "DurableGameStats-committer");
+        this.committer.setDaemon(true);
+        this.checkpointer = new Thread(this::runCheckpointer,
+                "DurableGameStats-checkpointer");
+        this.checkpointer.setDaemon(true);
+        this.committer.start();
+        this.checkpointer.start();
+    }
+
+    //Group commit
+
+    /**
+     * Appends a {@code LOG} (or, with a player, {@code PLAYER}) record for a
+     * score already applied to the kernel. Must be called with {@code lock}
+     * held.
+     *
+     * @param game
+     *            the game name
+     * @param score
+     *            the score
+     * @param player
+     *            the player, or {@code null}
+     * @return the LSN assigned to the record
+     */
+    private long appendScore(String game, int score, String player) {
+        long lsn = ++this.lastLsn;
+        this.pending = WriteAheadLog.encode(this.pending, lsn, game, score,
+                player);
+        return this.enqueued(lsn);
+    }
+
+    /**
+     * Appends a {@code SKETCH} record for a sketch already merged into the
+     * kernel. Must be called with {@code lock} held.
+     *
+     * @param game
+     *            the game name
+     * @param sketch
+     *            the sketch
+     * @return the LSN assigned to the record
+     */
+    private long appendSketch(String game, HyperLogLog sketch) {
+        long lsn = ++this.lastLsn;
+        this.pending = WriteAheadLog.encode(this.pending, lsn, game, sketch);
+        return this.enqueued(lsn);
+    }
+
+    /**
+     * Appends a {@code CLEAR} record for a clear already applied to the
+     * kernel. Must be called with {@code lock} held.
+     *
+     * @return the LSN assigned to the record
+     */
+    private long appendClear() {
+        long lsn = ++this.lastLsn;
+        this.pending = WriteAheadLog.encode(this.pending, lsn,
+                WriteAheadLog.CLEAR);
+        return this.enqueued(lsn);
+    }
+
+    /**
+     * Counts a record just added to {@code pending} and wakes the committer
+     * if needed.
+     *
+     * @param lsn
+     *            the LSN of the record
+     * @return {@code lsn}
+     */
+    private long enqueued(long lsn) {
+        if (this.pendingRecords == 0) {
+            this.pendingSince = System.nanoTime();
+        }
+        this.pendingRecords++;
+        if (this.pendingRecords == 1
+                || this.pendingRecords >= this.maxBatchSize) {
+            this.work.signal();
+        }
+        return lsn;
+    }
+
+    /**
+     * Deletes the log and checkpoint files in {@code dir}, and {@code dir}
+     * itself if that leaves it empty.
+     *
+     * @param dir
+     *            a directory used by a {@code DurableGameStats}, which must
+     *            be closed
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    public static void delete(Path dir) throws IOException {
+        WriteAheadLog.delete(dir);
+    }
+
+    /**
+     * Waits until every record up to {@code lsn} is durable. Must be called
+     * with {@code lock} held; the lock is released while waiting.
+     *
+     * @param lsn
+     *            the LSN to wait for
+     * @throws UncheckedIOException
+     *             if the committer failed to write the record
+     */
+    private void awaitDurable(long lsn) {
+        while (this.durableLsn < lsn && this.failure == null) {
+            this.committed.awaitUninterruptibly();
+        }
+        if (this.durableLsn < lsn) {
+            throw new UncheckedIOException("Write-ahead log failed",
+                    this.failure);
+        }
+    }
+
+    /**
+     * Throws if the log has failed or been closed. Must be called with
+     * {@code lock} held.
+     */
+    private void checkOpen() {
+        if (this.failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed",
+                    this.failure);
+        }
+        if (this.closed) {
+            throw new IllegalStateException("DurableGameStats is closed");
+        }
+    }
+
+    /**
+     * Reports whether a checkpoint should be started now. Must be called with
+     * {@code lock} held.
+     *
+     * @return true iff one is due and none is running
+     */
+    private boolean checkpointDue() {
+        return !this.compacting && (this.checkpointRequested
+                || (this.checkpointInterval > 0
+                        && this.sinceCheckpoint >= this.checkpointInterval));
+    }
+
+    /**
+     * Body of the committer thread: repeatedly waits for pending records,
+     * writes them as one batch, and rotates the log when a checkpoint is due.
+     */
+    private void runCommitter() {
+        this.lock.lock();
+        try {
+            while (true) {
+                while (this.pendingRecords == 0 && !this.checkpointDue()
+                        && (!this.closed || this.checkpointRequested)
+                        && this.failure == null) {
+                    this.work.awaitUninterruptibly();
+                }
+                if (this.pendingRecords > 0 && this.failure == null) {
+                    this.awaitBatch();
+                    this.commitPending();
+                }
+                if (this.checkpointDue() && this.failure == null) {
+                    this.startCheckpoint();
+                }
+                if (this.failure != null || (this.closed
+                        && this.pendingRecords == 0
+                        && !this.checkpointRequested)) {
+                    this.committerDone = true;
+                    this.compactWork.signal();
+                    this.committed.signalAll();
+                    return;
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits, with {@code lock} held, until the pending batch is full, its
+     * oldest record has waited {@code maxDelayNanos}, or the log is closing.
+     */
+    private void awaitBatch() {
+        long deadline = this.pendingSince + this.maxDelayNanos;
+        long remaining = deadline - System.nanoTime();
+        while (remaining > 0 && this.pendingRecords < this.maxBatchSize
+                && !this.closed) {
+            try {
+                remaining = this.work.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the pending batch to the log. The lock is released during the
+     * write so that writers can fill the next batch meanwhile.
+     */
+    private void commitPending() {
+        ByteBuffer batch = this.pending;
+        this.pending = this.writing;
+        this.writing = batch;
+        int records = this.pendingRecords;
+        long upTo = this.lastLsn;
+        this.pendingRecords = 0;
+
+        this.lock.unlock();
+        IOException error = null;
+        try {
+            this.wal.commit(batch);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            this.lock.lock();
+        }
+        if (error != null) {
+            this.failure = error;
+        } else {
+            this.durableLsn = upTo;
+            this.sinceCheckpoint += records;
+        }
+        this.committed.signalAll();
+    }
+
+    /**
+     * Writes any pending records, moves the log on to a new segment and hands
+     * the finished segments to the checkpointer. The lock is held throughout,
+     * so every record up to {@code compactLsn} is in the finished segments
+     * and every later one in the new segment.
+     */
+    private void startCheckpoint() {
+        try {
+            if (this.pendingRecords > 0) {
+                this.wal.commit(this.pending);
+                this.pendingRecords = 0;
+                this.durableLsn = this.lastLsn;
+            }
+            this.compactThrough = this.wal.rotate();
+            this.compactLsn = this.lastLsn;
+            this.compacting = true;
+            this.sinceCheckpoint = 0;
+            this.compactWork.signal();
+        } catch (IOException e) {
+            this.failure = e;
+        }
+        this.checkpointRequested = false;
+        this.committed.signalAll();
+    }
+
+    /**
+     * Body of the checkpointer thread: writes a checkpoint, with the lock
+     * released, each time the committer rotates the log, until the committer
+     * has stopped and no checkpoint is left to write.
+     */
+    private void runCheckpointer() {
+        this.lock.lock();
+        try {
+            while (true) {
+                while (!this.compacting && !this.committerDone) {
+                    this.compactWork.awaitUninterruptibly();
+                }
+                if (!this.compacting) {
+                    return;
+                }
+                long through = this.compactThrough;
+                long lsn = this.compactLsn;
+                this.lock.unlock();
+                IOException error = null;
+                try {
+                    this.wal.compact(through, lsn);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    this.lock.lock();
+                }
+                if (error != null) {
+                    this.failure = error;
+                } else {
+                    this.checkpoints++;
+                }
+                this.compacting = false;
+                this.work.signal();
+                this.committed.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Checkpoints every record logged so far and deletes the log segments it
+     * covers, returning once the checkpoint is durable.
+     *
+     * @throws UncheckedIOException
+     *             if the checkpoint cannot be written
+     */
+    public void checkpoint() {
+        this.lock.lock();
+        try {
+            this.checkOpen();
+            // a checkpoint already running covers only earlier records
+            long target = this.checkpoints + 1;
+            if (this.compacting) {
+                target++;
+            }
+            this.checkpointRequested = true;
+            this.work.signal();
+            while (this.checkpoints < target && this.failure == null) {
+                this.committed.awaitUninterruptibly();
+            }
+            this.checkOpen();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current size of the newest log segment, in bytes; a
+     * checkpoint starts a new, empty one.
+     *
+     * @return the log size
+     */
+    public long logSize() {
+        this.lock.lock();
+        try {
+            return this.wal.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Commits any pending records, waits for a running checkpoint, stops the
+     * background threads and closes the log.
+     *
+     * @throws IOException
+     *             if the log cannot be closed cleanly
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.work.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        boolean interrupted = false;
+        for (Thread t : new Thread[] { this.committer, this.checkpointer }) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        this.wal.close();
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    //Kernel Methods
+
+    @Override
+    public void logGame(String game, int score) {
+        assert game != null : "Violation of: game is not null";
+        assert score >= 0 : "Violation of: score >= 0";
+        WriteAheadLog.checkName(game);
+
+        this.lock.lock();
+        try {
+            this.checkOpen();
+            this.kernel.logGame(game, score);
+            this.awaitDurable(this.appendScore(game, score, null));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int getBestScore(String game) {
+        this.lock.lock();
+        try {
+            return this.kernel.getBestScore(game);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int getTotalGamesPlayed(String game) {
+        this.lock.lock();
+        try {
+            return this.kernel.getTotalGamesPlayed(game);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getGames() {
+        this.lock.lock();
+        try {
+            return this.kernel.getGames();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    protected int getScoreAt(String game, int index) {
+        return this.getAllScores(game).get(index);
+    }
+
+    //Unique players
+
+    @Override
+    public void logGame(String game, int score, String player) {
+        assert game != null : "Violation of: game is not null";
+        assert score >= 0 : "Violation of: score >= 0";
+        assert player != null : "Violation of: player is not null";
+        WriteAheadLog.checkName(game);
+        WriteAheadLog.checkName(player);
+
+        this.lock.lock();
+        try {
+            this.checkOpen();
+            this.kernel.logGame(game, score, player);
+            this.awaitDurable(this.appendScore(game, score, player));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long getUniquePlayers(String game) {
+        this.lock.lock();
+        try {
+            return this.kernel.getUniquePlayers(game);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public HyperLogLog getPlayerSketch(String game) {
+        this.lock.lock();
+        try {
+            return this.kernel.getPlayerSketch(game);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void mergePlayerSketch(String game, HyperLogLog sketch) {
+        assert game != null : "Violation of: game is not null";
+        assert sketch != null : "Violation of: sketch is not null";
+        WriteAheadLog.checkName(game);
+
+        this.lock.lock();
+        try {
+            this.checkOpen();
+            this.kernel.mergePlayerSketch(game, sketch);
+            this.awaitDurable(this.appendSketch(game, sketch));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getGamesWithPlayers() {
+        this.lock.lock();
+        try {
+            return this.kernel.getGamesWithPlayers();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    //Standard methods
+
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.checkOpen();
+            this.kernel.clear();
+            this.awaitDurable(this.appendClear());
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a new, empty instance of the kernel's type. It is <em>not</em>
+     * durable: a durable instance is bound to a log directory of its own,
+     * which only the constructor can be given.
+     *
+     * @return {@code kernel.newInstance()}
+     */
+    @Override
+    public GameStats newInstance() {
+        return this.kernel.newInstance();
+    }
+
+    /**
+     * Replaces {@code this} with the contents of {@code source} by logging a
+     * clear followed by every score and player sketch of {@code source}, then
+     * clears {@code source}.
+     *
+     * @param source
+     *            the statistics to move into {@code this}
+     */
+    @Override
+    public void transferFrom(GameStats source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        for (String game : source.getGames()) {
+            WriteAheadLog.checkName(game);
+        }
+        for (String game : source.getGamesWithPlayers()) {
+            WriteAheadLog.checkName(game);
+        }
+
+        this.lock.lock();
+        try {
+            this.checkOpen();
+            this.kernel.clear();
+            long lsn = this.appendClear();
+            for (String game : source.getGames()) {
+                for (int score : source.getAllScores(game)) {
+                    this.kernel.logGame(game, score);
+                    lsn = this.appendScore(game, score, null);
+                }
+            }
+            for (String game : source.getGamesWithPlayers()) {
+                HyperLogLog sketch = source.getPlayerSketch(game);
+                this.kernel.mergePlayerSketch(game, sketch);
+                lsn = this.appendSketch(game, sketch);
+            }
+            this.awaitDurable(lsn);
+        } finally {
+            this.lock.unlock();
+        }
+        source.clear();
+    }
+
+    //Enhanced methods, delegated so the kernel's own versions are used
+
+    @Override
+    public void addScore(String game, int score) {
+        this.logGame(game, score);
+    }
+
+    @Override
+    public double getAverageScore(String game) {
+        this.lock.lock();
+        try {
+            return this.kernel.getAverageScore(game);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Integer> getAllScores(String game) {
+        this.lock.lock();
+        try {
+            return this.kernel.getAllScores(game);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getGamesWithPrefix(String prefix) {
+        this.lock.lock();
+        try {
+            return this.kernel.getGamesWithPrefix(prefix);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTotalGamesPlayedWithPrefix(String prefix) {
+        this.lock.lock();
+        try {
+            return this.kernel.getTotalGamesPlayedWithPrefix(prefix);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int getBestScoreWithPrefix(String prefix) {
+        this.lock.lock();
+        try {
+            return this.kernel.getBestScoreWithPrefix(prefix);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public double getAverageScoreWithPrefix(String prefix) {
+        this.lock.lock();
+        try {
+            return this.kernel.getAverageScoreWithPrefix(prefix);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package components.gamestats;
+
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * Sorted index over game names, used by kernel implementations to answer
+ * prefix queries without visiting unrelated games.
+ * <p>
+ * Names are kept in a {@code TreeSet}, so inserting a name costs
+ * {@code O(log n)} however many games there are. All games sharing a prefix
+ * form a contiguous range of the sorted names, from {@code prefix} up to
+ * {@code prefix + '\uffff'}, which is reached without visiting the others.
+ * ({@code '\uffff'} is not a character, so no real name continues past it.)
+ * </p>
+ *
+ * <p>
+ * <strong>Convention</strong>
+ * <ul>
+ * <li>{@code names} contains no {@code null}</li>
+ * </ul>
+ * </p>
+ */
+final class GameNameIndex {
+
+    /**
+     * Game names in ascending order.
+     */
+    private final TreeSet<String> names;
+
+    /**
+     * Creates an empty index.
+     */
+    GameNameIndex() {
+        this.names = new TreeSet<>();
+    }
+
+    /**
+     * Returns the number of names in the index.
+     *
+     * @return the number of names
+     */
+    int size() {
+        return this.names.size();
+    }
+
+    /**
+     * Adds {@code name} to the index if it is not already present.
+     *
+     * @param name
+     *            the game name
+     * @requires name != null
+     * @ensures this = #this union {name}
+     */
+    void add(String name) {
+        assert name != null : "Violation of: name is not null";
+        this.names.add(name);
+    }
+
+    /**
+     * Reports whether {@code name} is in the index.
+     *
+     * @param name
+     *            the game name
+     * @return true iff {@code name} is in the index
+     * @requires name != null
+     */
+    boolean contains(String name) {
+        assert name != null : "Violation of: name is not null";
+        return this.names.contains(name);
+    }
+
+    /**
+     * Returns a sorted view of the names that start with {@code prefix}. The
+     * view must not be used after the index changes.
+     *
+     * @param prefix
+     *            the prefix
+     * @return the names with the given prefix
+     * @requires prefix != null
+     */
+    NavigableSet<String> startingWith(String prefix) {
+        assert prefix != null : "Violation of: prefix is not null";
+        return this.names.subSet(prefix, true, prefix + '\uffff', true);
+    }
+
+    /**
+     * Returns the set of all names in the index.
+     *
+     * @return the set of names
+     */
+    Set<String> all() {
+        Set<String> result = new Set1L<>();
+        for (String name : this.names) {
+            result.add(name);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the set of names that start with {@code prefix}.
+     *
+     * @param prefix
+     *            the prefix
+     * @return the set of names with the given prefix
+     * @requires prefix != null
+     */
+    Set<String> withPrefix(String prefix) {
+        assert prefix != null : "Violation of: prefix is not null";
+
+        Set<String> result = new Set1L<>();
+        for (String name : this.startingWith(prefix)) {
+            result.add(name);
+        }
+        return result;
+    }
+
+}
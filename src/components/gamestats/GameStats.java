@@ -46,6 +46,126 @@ public interface GameStats extends GameStatsKernel {
        */
       List<Integer> getAllScores(String game);
 
+      /**
+       * Returns the set of game names that start with {@code prefix}. Game
+       * names are often hierarchical (e.g. "Valorant/Ranked/NA"), so a prefix
+       * such as "Valorant/" selects every mode of a game.
+       *
+       * @param prefix
+       *              the prefix to match
+       * @return the set of logged game names starting with {@code prefix}
+       * @requires prefix != null
+       * @ensures getGamesWithPrefix = {g in getGames() | g starts with prefix}
+       */
+      Set<String> getGamesWithPrefix(String prefix);
+
+      /**
+       * Returns the total number of plays across all games whose name starts
+       * with {@code prefix}.
+       *
+       * @param prefix
+       *              the prefix to match
+       * @return the sum of getTotalGamesPlayed over the matching games
+       * @requires prefix != null
+       * @ensures getTotalGamesPlayedWithPrefix = sum of getTotalGamesPlayed(g)
+       *          for g in getGamesWithPrefix(prefix)
+       */
+      long getTotalGamesPlayedWithPrefix(String prefix);
+
+      /**
+       * Returns the highest score across all games whose name starts with
+       * {@code prefix}.
+       *
+       * @param prefix
+       *              the prefix to match
+       * @return the highest matching score, or -1 if no scores exist
+       * @requires prefix != null
+       * @ensures getBestScoreWithPrefix = max of getBestScore(g) for g in
+       *          getGamesWithPrefix(prefix), or -1 if there are none
+       */
+      int getBestScoreWithPrefix(String prefix);
+
+      /**
+       * Computes the average score across all plays of all games whose name
+       * starts with {@code prefix}.
+       *
+       * @param prefix
+       *              the prefix to match
+       * @return the average score, or -1 if no scores exist
+       * @requires prefix != null
+       * @ensures getAverageScoreWithPrefix = (sum of all scores of matching
+       *          games)/(total number of those scores), or -1 if there are none
+       */
+      double getAverageScoreWithPrefix(String prefix);
+
+      /**
+       * Logs a score for a specific game, recording which player achieved it
+       * in the game's unique-player sketch.
+       *
+       * @param game
+       *              the name of the game
+       * @param score
+       *              the score achieved
+       * @param player
+       *              an identifier of the player
+       * @requires game != null and score >= 0 and player != null
+       * @ensures the score is added to the recorded scores for the specified
+       *          game and player is added to the game's player sketch
+       */
+      void logGame(String game, int score, String player);
+
+      /**
+       * Returns the estimated number of distinct players recorded for a game.
+       * The estimate comes from a fixed-size {@link HyperLogLog} sketch, so
+       * it is approximate (about 2% standard error) but costs the same memory
+       * however many players there are.
+       *
+       * @param game
+       *              the name of the game
+       * @return the estimated number of distinct players, or 0 if none were
+       *         recorded
+       * @requires game != null
+       * @ensures getUniquePlayers = estimate of |{players logged for game}|
+       */
+      long getUniquePlayers(String game);
+
+      /**
+       * Returns a copy of the unique-player sketch of a game, e.g. to merge
+       * with the sketches of other instances.
+       *
+       * @param game
+       *              the name of the game
+       * @return a copy of the game's sketch, empty if no players were recorded
+       * @requires game != null
+       */
+      HyperLogLog getPlayerSketch(String game);
+
+      /**
+       * Merges a sketch of players into the unique-player sketch of a game, so
+       * that afterwards {@code getUniquePlayers(game)} estimates the players of
+       * both.
+       *
+       * @param game
+       *              the name of the game
+       * @param sketch
+       *              the sketch to merge in
+       * @requires game != null and sketch has the default precision
+       * @ensures the game's sketch is the union of #sketch and the sketch
+       */
+      void mergePlayerSketch(String game, HyperLogLog sketch);
+
+      /**
+       * Returns the set of games with a non-empty unique-player sketch. A
+       * game whose players were merged in with {@code mergePlayerSketch} is
+       * included even if no score was ever logged for it, so this is not
+       * necessarily a subset of {@code getGames()}.
+       *
+       * @return the names of the games with recorded players
+       * @ensures getGamesWithPlayers = {game | getPlayerSketch(game) is not
+       *          empty}
+       */
+      Set<String> getGamesWithPlayers();
+
       /**
        * {@inheritDoc}
        */
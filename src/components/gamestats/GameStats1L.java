@@ -1,7 +1,6 @@
 package components.gamestats;
 
 import components.map.Map;
-import components.map.Map.Pair;
 import components.map.Map1L;
 import components.sequence.Sequence;
 import components.sequence.Sequence1L;
@@ -13,7 +12,10 @@ import components.set.Set1L;
  * <p>
  * Representation: {@code Map<String, Sequence<Integer>> stats} where each key
  * is a game name and the associated {@code Sequence<Integer>} stores the scores
- * for that game in the order they were logged.
+ * for that game in the order they were logged, together with a
+ * {@code GameNameIndex names} holding the same game names in sorted order for
+ * prefix queries, and a {@code Map<String, HyperLogLog> players} holding the
+ * unique-player sketch of each game for which a player has been recorded.
  * </p>
  *
  * <p>
@@ -25,6 +27,10 @@ import components.set.Set1L;
  * {@code null}</li>
  * <li>Every {@code Integer} value {@code s} in every stored sequence satisfies
  * {@code s >= 0}</li>
+ * <li>{@code names} is not {@code null} and contains exactly the keys of
+ * {@code stats}</li>
+ * <li>{@code players} is not {@code null}, and every sketch in it has the
+ * default precision</li>
  * </ul>
  * </p>
  *
@@ -54,6 +60,19 @@ public class GameStats1L extends GameStatsSecondary {
      */
     private Map<String, Sequence<Integer>> stats;
 
+    /**
+     * Sorted index of the keys of {@code stats}, maintained when a game is
+     * first logged so that {@link #getGames()} and prefix queries do not have
+     * to take the map apart.
+     */
+    private GameNameIndex names;
+
+    /**
+     * Unique-player sketch of each game, created when the first player is
+     * recorded for it.
+     */
+    private Map<String, HyperLogLog> players;
+
     //Constructors
 
     /**
@@ -68,6 +87,8 @@ public class GameStats1L extends GameStatsSecondary {
      */
     private void createNewRep() {
         this.stats = new Map1L<>();
+        this.names = new GameNameIndex();
+        this.players = new Map1L<>();
     }
 
     //Kernel Methods
@@ -83,6 +104,7 @@ public class GameStats1L extends GameStatsSecondary {
         } else {
             seq = new Sequence1L<>();
             this.stats.add(game, seq);
+            this.names.add(game);
         }
         seq.add(seq.length(), score);
     }
@@ -134,6 +156,8 @@ public class GameStats1L extends GameStatsSecondary {
 
         GameStats1L src = (GameStats1L) source;
         this.stats = src.stats;
+        this.names = src.names;
+        this.players = src.players;
         src.createNewRep();
     }
 
@@ -142,6 +166,57 @@ public class GameStats1L extends GameStatsSecondary {
         this.logGame(game, score);
     }
 
+    @Override
+    public final void logGame(String game, int score, String player) {
+        assert player != null : "Violation of: player is not null";
+
+        this.logGame(game, score);
+        if (!this.players.hasKey(game)) {
+            this.players.add(game, new HyperLogLog());
+        }
+        this.players.value(game).add(player);
+    }
+
+    @Override
+    public final long getUniquePlayers(String game) {
+        assert game != null : "Violation of: game is not null";
+        if (!this.players.hasKey(game)) {
+            return 0;
+        }
+        return this.players.value(game).estimate();
+    }
+
+    @Override
+    public final HyperLogLog getPlayerSketch(String game) {
+        assert game != null : "Violation of: game is not null";
+        if (!this.players.hasKey(game)) {
+            return new HyperLogLog();
+        }
+        return this.players.value(game).copy();
+    }
+
+    @Override
+    public final void mergePlayerSketch(String game, HyperLogLog sketch) {
+        assert game != null : "Violation of: game is not null";
+        assert sketch != null : "Violation of: sketch is not null";
+        if (this.players.hasKey(game)) {
+            this.players.value(game).merge(sketch);
+        } else {
+            this.players.add(game, sketch.copy());
+        }
+    }
+
+    @Override
+    public final Set<String> getGamesWithPlayers() {
+        Set<String> result = new Set1L<>();
+        for (Map.Pair<String, HyperLogLog> p : this.players) {
+            if (!p.value().isEmpty()) {
+                result.add(p.key());
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the score at the specified index for the given game.
      *
@@ -168,24 +243,21 @@ public class GameStats1L extends GameStatsSecondary {
      */
     @Override
     public Set<String> getGames() {
-        Set<String> games = new Set1L<String>();
-        Sequence<Pair<String, Sequence<Integer>>> temp = new Sequence1L<Pair<String, Sequence<Integer>>>();
-
-        // Remove all entries, collecting keys, while saving pairs in temp
-        while (this.stats.size() > 0) {
-            Pair<String, Sequence<Integer>> p = this.stats.removeAny();
-            games.add(p.key());
-            temp.add(temp.length(), p);
-        }
-
-        // Restore the original map entries
-        for (int i = 0; i < temp.length(); i++) {
-            Pair<String, Sequence<Integer>> p = temp.entry(i);
-            this.stats.add(p.key(), p.value());
-        }
-        temp.clear();
+        return this.names.all();
+    }
 
-        return games;
+    /**
+     * Returns the set of logged game names starting with {@code prefix},
+     * visiting only the matching run of the sorted name index.
+     *
+     * @param prefix
+     *            the prefix to match
+     * @return a set of game names
+     */
+    @Override
+    public Set<String> getGamesWithPrefix(String prefix) {
+        assert prefix != null : "Violation of: prefix is not null";
+        return this.names.withPrefix(prefix);
     }
 
 }
@@ -0,0 +1,808 @@
+package components.gamestats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * Kernel implementation #2 for {@code GameStats}: tiered storage.
+ * <p>
+ * Aggregates (play count, best score, score sum) for every game are kept in
+ * memory, so {@link #getTotalGamesPlayed(String)},
+ * {@link #getBestScore(String)} and {@link #getAverageScore(String)} never
+ * touch the disk. Full score lists are kept in memory only for the
+ * {@code capacity} most recently used games; the others are paged out and
+ * paged back in when a score list is needed ({@code logGame},
+ * {@code getAllScores}, {@code getScoreAt}).
+ * </p>
+ * <p>
+ * Paged-out scores go to a single append-only segment file, kept open for the
+ * life of the object. A page-out appends only the scores logged since the
+ * game was last paged out, as one more run, and the entry remembers where
+ * each of its runs lies; once a game has {@code MAX_RUNS} runs, its next
+ * page-out rewrites all its scores as a single run, so a page-in never needs
+ * more than {@code MAX_RUNS} reads. The space given up that way is reclaimed
+ * by copying the live runs into a fresh segment once it makes up more than
+ * half of the file.
+ * </p>
+ * <p>
+ * The segment lives in a directory that belongs to this object alone: it is
+ * created, with a unique name, inside the directory given to the constructor
+ * (or the system temporary directory) the first time a game is paged out.
+ * {@link #clear()} and {@link #close()} delete it, so instances that never
+ * page out never touch the disk, and several instances can share one parent
+ * directory.
+ * </p>
+ * <p>
+ * Representation: {@code HashMap<String, Entry> games} with one entry per
+ * logged game, {@code LinkedHashMap<String, Entry> hot} holding the entries
+ * whose scores are in memory in least-recently-used order, a
+ * {@code GameNameIndex names} of all game names, the directory {@code dir}
+ * and open {@code segment} holding the paged-out scores (both {@code null}
+ * until first needed), and {@code HashMap<String, HyperLogLog> players}
+ * holding the unique-player sketches, which always stay in memory.
+ * </p>
+ *
+ * <p>
+ * <strong>Convention (Representation Invariant)</strong>
+ * <ul>
+ * <li>{@code names} contains exactly the keys of {@code games}</li>
+ * <li>{@code hot} maps a subset of the keys of {@code games} to the same
+ * entries, and {@code hot.size() <= capacity}</li>
+ * <li>for every entry {@code e}, {@code 0 <= e.persisted <= e.count}, and
+ * {@code e.runs} lists at most {@code MAX_RUNS} (offset, count) pairs of
+ * {@code segment} that, in order, hold the first {@code e.persisted}
+ * scores</li>
+ * <li>{@code segmentEnd} is the size of {@code segment}, of which
+ * {@code deadBytes} are in no entry's runs</li>
+ * <li>{@code e.scores != null} iff {@code e} is in {@code hot}, in which case
+ * {@code e.scores} holds all {@code e.count} scores</li>
+ * <li>{@code e.count > 0}, {@code e.best} is the largest score and
+ * {@code e.sum} the sum of all scores</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * <strong>Correspondence (Abstraction Function)</strong><br>
+ * {@code dom(GS) = games.keySet()}, and for each game {@code g},
+ * {@code GS(g)} is {@code games.get(g).scores} if it is hot, and otherwise the
+ * {@code games.get(g).count} scores stored in its runs.
+ * </p>
+ */
+public class GameStats2 extends GameStatsSecondary implements Closeable {
+
+    /**
+     * Default number of games whose scores are kept in memory.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Most runs a game's paged-out scores are split into.
+     */
+    private static final int MAX_RUNS = 8;
+
+    /**
+     * Dead space below which the segment is never compacted.
+     */
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    /**
+     * Shared run list of games never paged out.
+     */
+    private static final long[] NO_RUNS = {};
+
+    /**
+     * Per-game state.
+     */
+    private static final class Entry {
+
+        /**
+         * Number of scores logged.
+         */
+        private int count;
+
+        /**
+         * Highest score logged.
+         */
+        private int best;
+
+        /**
+         * Sum of all scores logged.
+         */
+        private long sum;
+
+        /**
+         * Number of scores already written to the segment.
+         */
+        private int persisted;
+
+        /**
+         * Byte offset and score count of each run holding the persisted
+         * scores, in order.
+         */
+        private long[] runs = NO_RUNS;
+
+        /**
+         * All scores, or {@code null} if the game is paged out.
+         */
+        private ScoreList scores;
+
+    }
+
+    //Representation
+
+    /**
+     * Number of games whose scores are kept in memory.
+     */
+    private final int capacity;
+
+    /**
+     * Directory in which to create {@code dir}, or {@code null} for the
+     * system temporary directory.
+     */
+    private final Path parent;
+
+    /**
+     * Every logged game, by name.
+     */
+    private HashMap<String, Entry> games;
+
+    /**
+     * Games whose scores are in memory, in access order.
+     */
+    private LinkedHashMap<String, Entry> hot;
+
+    /**
+     * Sorted index of game names.
+     */
+    private GameNameIndex names;
+
+    /**
+     * Unique-player sketch of each game, created when the first player is
+     * recorded for it.
+     */
+    private HashMap<String, HyperLogLog> players;
+
+    /**
+     * Directory holding the segment, or {@code null} if it has not been
+     * created yet.
+     */
+    private Path dir;
+
+    /**
+     * Open segment file, or {@code null} if nothing has been paged out.
+     */
+    private FileChannel segment;
+
+    /**
+     * Number in the name of the segment file; compaction moves to the next.
+     */
+    private int segmentNumber;
+
+    /**
+     * Size of the segment file.
+     */
+    private long segmentEnd;
+
+    /**
+     * Bytes of the segment no longer part of any run.
+     */
+    private long deadBytes;
+
+    //Cache statistics
+
+    /**
+     * Score-list accesses that found the game in memory.
+     */
+    private long hits;
+
+    /**
+     * Score-list accesses that had to page the game in.
+     */
+    private long misses;
+
+    /**
+     * Games paged out to make room.
+     */
+    private long evictions;
+
+    /**
+     * Total time spent paging games in.
+     */
+    private long pageInNanos;
+
+    //Constructors
+
+    /**
+     * Default constructor: empty statistics with the default capacity, paging
+     * under the system temporary directory.
+     */
+    public GameStats2() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates empty statistics keeping at most {@code capacity} games in
+     * memory, paging under the system temporary directory.
+     *
+     * @param capacity
+     *            number of games whose scores are kept in memory
+     * @requires capacity > 0
+     */
+    public GameStats2(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates empty statistics keeping at most {@code capacity} games in
+     * memory, paging to a directory of their own inside {@code dir}.
+     *
+     * @param capacity
+     *            number of games whose scores are kept in memory
+     * @param dir
+     *            directory in which to create the score directory, or
+     *            {@code null} for the system temporary directory
+     * @requires capacity > 0
+     */
+    public GameStats2(int capacity, Path dir) {
+        assert capacity > 0 : "Violation of: capacity > 0";
+        this.capacity = capacity;
+        this.parent = dir;
+        this.createNewRep();
+    }
+
+    /**
+     * Replaces the current representation with a fresh, empty one. The old
+     * segment and directory, if any, are left alone.
+     */
+    private void createNewRep() {
+        this.dir = null;
+        this.segment = null;
+        this.segmentNumber = 0;
+        this.segmentEnd = 0;
+        this.deadBytes = 0;
+        this.games = new HashMap<>();
+        this.hot = new LinkedHashMap<>(16, 0.75f, true);
+        this.names = new GameNameIndex();
+        this.players = new HashMap<>();
+    }
+
+    //Paging
+
+    /**
+     * Returns the directory holding the score files, creating it if this is
+     * the first page-out.
+     *
+     * @return the score directory
+     */
+    private Path directory() {
+        if (this.dir == null) {
+            try {
+                if (this.parent == null) {
+                    this.dir = Files.createTempDirectory("gamestats");
+                } else {
+                    Files.createDirectories(this.parent);
+                    this.dir = Files.createTempDirectory(this.parent,
+                            "gamestats");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this.dir;
+    }
+
+    /**
+     * Returns the path of segment file number {@code n}.
+     *
+     * @param n
+     *            the segment number
+     * @return its path
+     */
+    private Path segmentFile(int n) {
+        return this.dir.resolve("scores-" + n + ".seg");
+    }
+
+    /**
+     * Opens a new, empty segment file numbered {@code n}.
+     *
+     * @param n
+     *            the segment number
+     * @return the open channel
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    private FileChannel openSegment(int n) throws IOException {
+        return FileChannel.open(this.segmentFile(n),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Reads the persisted scores of {@code e} from {@code in} into
+     * {@code scores}.
+     *
+     * @param in
+     *            the segment
+     * @param e
+     *            the entry
+     * @param scores
+     *            destination, with room for {@code e.persisted} scores
+     * @throws IOException
+     *             if the segment cannot be read
+     */
+    private static void readRuns(FileChannel in, Entry e, int[] scores)
+            throws IOException {
+        int at = 0;
+        for (int r = 0; r < e.runs.length; r += 2) {
+            int count = (int) e.runs[r + 1];
+            ByteBuffer buf = ByteBuffer.allocate(count * Integer.BYTES);
+            while (buf.hasRemaining()) {
+                if (in.read(buf, e.runs[r] + buf.position()) < 0) {
+                    throw new IOException("Score segment is truncated");
+                }
+            }
+            buf.flip();
+            buf.asIntBuffer().get(scores, at, count);
+            at += count;
+        }
+    }
+
+    /**
+     * Writes {@code buf} to {@code out} at {@code offset}.
+     *
+     * @param out
+     *            the segment
+     * @param buf
+     *            the bytes, ready to be read
+     * @param offset
+     *            where to write them
+     * @throws IOException
+     *             if the write fails
+     */
+    private static void writeAt(FileChannel out, ByteBuffer buf, long offset)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Returns the scores of {@code game}, paging them in if necessary and
+     * marking the game as most recently used.
+     *
+     * @param game
+     *            the game name
+     * @param e
+     *            the entry for {@code game}
+     * @return the game's scores
+     */
+    private ScoreList scoresOf(String game, Entry e) {
+        if (e.scores != null) {
+            this.hits++;
+            this.hot.get(game);
+            return e.scores;
+        }
+        this.misses++;
+        long start = System.nanoTime();
+        int[] scores = new int[Math.max(e.count, 1)];
+        if (e.persisted > 0) {
+            try {
+                readRuns(this.segment, e, scores);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        e.scores = new ScoreList(scores, e.persisted);
+        this.pageInNanos += System.nanoTime() - start;
+        this.hot.put(game, e);
+        this.evictIfFull();
+        return e.scores;
+    }
+
+    /**
+     * Pages out least recently used games until at most {@code capacity}
+     * remain in memory.
+     */
+    private void evictIfFull() {
+        Iterator<Entry> it = this.hot.values().iterator();
+        while (this.hot.size() > this.capacity) {
+            Entry victim = it.next();
+            this.pageOut(victim);
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Appends the not-yet-persisted scores of {@code e} to the segment as a
+     * new run, or all its scores as its only run if it has {@code MAX_RUNS}
+     * already, and drops them from memory.
+     *
+     * @param e
+     *            the entry to page out
+     */
+    private void pageOut(Entry e) {
+        int from = e.persisted;
+        if (from < e.count) {
+            if (e.runs.length == 2 * MAX_RUNS) {
+                this.deadBytes += (long) from * Integer.BYTES;
+                e.runs = NO_RUNS;
+                from = 0;
+            }
+            ByteBuffer buf = ByteBuffer
+                    .allocate((e.count - from) * Integer.BYTES);
+            for (int i = from; i < e.count; i++) {
+                buf.putInt(e.scores.get(i));
+            }
+            buf.flip();
+            try {
+                if (this.segment == null) {
+                    this.directory();
+                    this.segment = this.openSegment(this.segmentNumber);
+                }
+                writeAt(this.segment, buf, this.segmentEnd);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            int n = e.runs.length;
+            e.runs = Arrays.copyOf(e.runs, n + 2);
+            e.runs[n] = this.segmentEnd;
+            e.runs[n + 1] = e.count - from;
+            this.segmentEnd += (long) (e.count - from) * Integer.BYTES;
+            e.persisted = e.count;
+        }
+        e.scores = null;
+        if (this.deadBytes > MIN_COMPACT_BYTES
+                && this.deadBytes > this.segmentEnd / 2) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Copies every game's persisted scores, as a single run each, into a new
+     * segment and deletes the old one.
+     */
+    private void compact() {
+        long end = 0;
+        try {
+            FileChannel out = this.openSegment(this.segmentNumber + 1);
+            try {
+                for (Entry e : this.games.values()) {
+                    if (e.persisted == 0) {
+                        continue;
+                    }
+                    int[] scores = new int[e.persisted];
+                    readRuns(this.segment, e, scores);
+                    ByteBuffer buf = ByteBuffer
+                            .allocate(scores.length * Integer.BYTES);
+                    buf.asIntBuffer().put(scores);
+                    writeAt(out, buf, end);
+                    e.runs = new long[] { end, e.persisted };
+                    end += buf.capacity();
+                }
+            } catch (IOException ex) {
+                out.close();
+                throw ex;
+            }
+            this.segment.close();
+            Files.delete(this.segmentFile(this.segmentNumber));
+            this.segment = out;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.segmentNumber++;
+        this.segmentEnd = end;
+        this.deadBytes = 0;
+    }
+
+    /**
+     * Closes and deletes the segment, and the directory holding it.
+     */
+    private void deleteDirectory() {
+        if (this.dir == null) {
+            return;
+        }
+        try {
+            if (this.segment != null) {
+                this.segment.close();
+                this.segment = null;
+            }
+            Files.deleteIfExists(this.segmentFile(this.segmentNumber));
+            Files.deleteIfExists(this.dir);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.dir = null;
+    }
+
+    //Kernel Methods
+
+    @Override
+    public final void logGame(String game, int score) {
+        assert game != null : "Violation of: game is not null";
+        assert score >= 0 : "Violation of: score >= 0";
+
+        Entry e = this.games.get(game);
+        boolean added = e == null;
+        if (added) {
+            // a new game's list starts in memory; that is neither a hit nor
+            // a miss
+            e = new Entry();
+            this.games.put(game, e);
+            this.names.add(game);
+            e.scores = new ScoreList();
+            this.hot.put(game, e);
+            e.scores.add(score);
+        } else {
+            this.scoresOf(game, e).add(score);
+        }
+        if (e.count == 0 || score > e.best) {
+            e.best = score;
+        }
+        e.count++;
+        e.sum += score;
+        if (added) {
+            this.evictIfFull();
+        }
+    }
+
+    @Override
+    public final int getBestScore(String game) {
+        assert game != null : "Violation of: game is not null";
+        Entry e = this.games.get(game);
+        if (e == null) {
+            return -1;
+        }
+        return e.best;
+    }
+
+    @Override
+    public final int getTotalGamesPlayed(String game) {
+        assert game != null : "Violation of: game is not null";
+        Entry e = this.games.get(game);
+        if (e == null) {
+            return 0;
+        }
+        return e.count;
+    }
+
+    @Override
+    protected final int getScoreAt(String game, int index) {
+        assert game != null : "Violation of: game is not null";
+        Entry e = this.games.get(game);
+        assert e != null : "Violation of: game exists";
+        assert 0 <= index
+                && index < e.count : "Violation of: index in bounds";
+        return this.scoresOf(game, e).get(index);
+    }
+
+    @Override
+    public final Set<String> getGames() {
+        return this.names.all();
+    }
+
+    //Standard methods
+
+    @Override
+    public final void clear() {
+        this.deleteDirectory();
+        this.createNewRep();
+    }
+
+    /**
+     * Discards all statistics and deletes the score directory; the same as
+     * {@link #clear()}. Call it when done with an instance that may have
+     * paged games out, so that no files are left behind.
+     */
+    @Override
+    public final void close() {
+        this.clear();
+    }
+
+    @Override
+    public final GameStats2 newInstance() {
+        return new GameStats2(this.capacity, this.parent);
+    }
+
+    @Override
+    public final void transferFrom(GameStats source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        GameStats2 src = (GameStats2) source;
+        this.clear();
+        this.dir = src.dir;
+        this.segment = src.segment;
+        this.segmentNumber = src.segmentNumber;
+        this.segmentEnd = src.segmentEnd;
+        this.deadBytes = src.deadBytes;
+        this.games = src.games;
+        this.hot = src.hot;
+        this.names = src.names;
+        this.players = src.players;
+        src.createNewRep();
+        this.evictIfFull();
+    }
+
+    //Enhanced methods answered from the in-memory aggregates
+
+    @Override
+    public final void addScore(String game, int score) {
+        this.logGame(game, score);
+    }
+
+    @Override
+    public final double getAverageScore(String game) {
+        assert game != null : "Violation of: game is not null";
+        Entry e = this.games.get(game);
+        if (e == null) {
+            return -1;
+        }
+        return (double) e.sum / e.count;
+    }
+
+    @Override
+    public final List<Integer> getAllScores(String game) {
+        assert game != null : "Violation of: game is not null";
+        List<Integer> result = new ArrayList<>();
+        Entry e = this.games.get(game);
+        if (e != null) {
+            ScoreList scores = this.scoresOf(game, e);
+            for (int i = 0; i < scores.length(); i++) {
+                result.add(scores.get(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public final Set<String> getGamesWithPrefix(String prefix) {
+        assert prefix != null : "Violation of: prefix is not null";
+        return this.names.withPrefix(prefix);
+    }
+
+    @Override
+    public final double getAverageScoreWithPrefix(String prefix) {
+        assert prefix != null : "Violation of: prefix is not null";
+        long count = 0;
+        long sum = 0;
+        for (String game : this.names.startingWith(prefix)) {
+            Entry e = this.games.get(game);
+            count += e.count;
+            sum += e.sum;
+        }
+        if (count == 0) {
+            return -1;
+        }
+        return (double) sum / count;
+    }
+
+    //Unique players
+
+    @Override
+    public final void logGame(String game, int score, String player) {
+        assert player != null : "Violation of: player is not null";
+
+        this.logGame(game, score);
+        HyperLogLog sketch = this.players.get(game);
+        if (sketch == null) {
+            sketch = new HyperLogLog();
+            this.players.put(game, sketch);
+        }
+        sketch.add(player);
+    }
+
+    @Override
+    public final long getUniquePlayers(String game) {
+        assert game != null : "Violation of: game is not null";
+        HyperLogLog sketch = this.players.get(game);
+        if (sketch == null) {
+            return 0;
+        }
+        return sketch.estimate();
+    }
+
+    @Override
+    public final HyperLogLog getPlayerSketch(String game) {
+        assert game != null : "Violation of: game is not null";
+        HyperLogLog sketch = this.players.get(game);
+        if (sketch == null) {
+            return new HyperLogLog();
+        }
+        return sketch.copy();
+    }
+
+    @Override
+    public final void mergePlayerSketch(String game, HyperLogLog sketch) {
+        assert game != null : "Violation of: game is not null";
+        assert sketch != null : "Violation of: sketch is not null";
+        HyperLogLog mine = this.players.get(game);
+        if (mine == null) {
+            this.players.put(game, sketch.copy());
+        } else {
+            mine.merge(sketch);
+        }
+    }
+
+    @Override
+    public final Set<String> getGamesWithPlayers() {
+        Set<String> result = new Set1L<>();
+        for (Map.Entry<String, HyperLogLog> e : this.players.entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    //Cache statistics
+
+    /**
+     * Returns the number of score-list accesses served from memory.
+     *
+     * @return the hit count
+     */
+    public final long cacheHits() {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of score-list accesses that paged a game in.
+     *
+     * @return the miss count
+     */
+    public final long cacheMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Returns the fraction of score-list accesses served from memory.
+     *
+     * @return the hit rate, or 0 if there have been no accesses
+     */
+    public final double cacheHitRate() {
+        long total = this.hits + this.misses;
+        if (total == 0) {
+            return 0;
+        }
+        return (double) this.hits / total;
+    }
+
+    /**
+     * Returns the number of games paged out to make room.
+     *
+     * @return the eviction count
+     */
+    public final long evictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Returns the mean time taken to page a game in, in nanoseconds.
+     *
+     * @return the average page-in latency, or 0 if nothing was paged in
+     */
+    public final double averagePageInNanos() {
+        if (this.misses == 0) {
+            return 0;
+        }
+        return (double) this.pageInNanos / this.misses;
+    }
+
+}
@@ -0,0 +1,130 @@
+package components.gamestats;
+
+/**
+ * A change to a game's statistics, delivered to a {@link GameStatsListener} by
+ * {@link ObservableGameStats}.
+ */
+public final class GameStatsEvent {
+
+    /**
+     * The kinds of change that can be subscribed to.
+     */
+    public enum Kind {
+        /**
+         * A score was logged.
+         */
+        SCORE_LOGGED,
+
+        /**
+         * A score was logged that is higher than every earlier score for the
+         * game (including the first score of a game).
+         */
+        NEW_BEST,
+
+        /**
+         * A game's play count reached one of the configured milestones.
+         */
+        MILESTONE
+    }
+
+    /**
+     * What changed.
+     */
+    private final Kind kind;
+
+    /**
+     * The game that changed.
+     */
+    private final String game;
+
+    /**
+     * The score that was logged.
+     */
+    private final int score;
+
+    /**
+     * The best score before this one was logged, or -1 if there was none.
+     */
+    private final int previousBest;
+
+    /**
+     * The game's play count after this score was logged.
+     */
+    private final int plays;
+
+    /**
+     * Creates an event.
+     *
+     * @param kind
+     *            what changed
+     * @param game
+     *            the game that changed
+     * @param score
+     *            the score that was logged
+     * @param previousBest
+     *            the best score before this one, or -1
+     * @param plays
+     *            the play count after this score
+     */
+    GameStatsEvent(Kind kind, String game, int score, int previousBest,
+            int plays) {
+        this.kind = kind;
+        this.game = game;
+        this.score = score;
+        this.previousBest = previousBest;
+        this.plays = plays;
+    }
+
+    /**
+     * Returns what changed.
+     *
+     * @return the kind of event
+     */
+    public Kind kind() {
+        return this.kind;
+    }
+
+    /**
+     * Returns the game that changed.
+     *
+     * @return the game name
+     */
+    public String game() {
+        return this.game;
+    }
+
+    /**
+     * Returns the score that was logged.
+     *
+     * @return the score
+     */
+    public int score() {
+        return this.score;
+    }
+
+    /**
+     * Returns the game's best score before this one was logged.
+     *
+     * @return the previous best score, or -1 if this was the first score
+     */
+    public int previousBest() {
+        return this.previousBest;
+    }
+
+    /**
+     * Returns the game's play count after this score was logged.
+     *
+     * @return the play count
+     */
+    public int plays() {
+        return this.plays;
+    }
+
+    @Override
+    public String toString() {
+        return this.kind + "(" + this.game + ", score " + this.score
+                + ", previous best " + this.previousBest + ", plays "
+                + this.plays + ")";
+    }
+
+}
@@ -0,0 +1,546 @@
+package components.gamestats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk loader for match-log files.
+ * <p>
+ * A match log has one play per line, {@code <game>,<score>}, where the score
+ * is the non-negative decimal integer after the last comma (so game names may
+ * themselves contain commas). Blank lines are ignored and a trailing
+ * {@code '\r'} is tolerated. Lines that do not match are counted as rejected
+ * and skipped.
+ * </p>
+ * <p>
+ * The file is memory-mapped and cut into line-aligned chunks that are parsed
+ * in parallel. Parsing works directly on the mapped bytes: each chunk resolves
+ * game names through a hash table keyed by byte slices, so a {@code String} is
+ * created once per distinct game per chunk rather than once per line, and
+ * scores are collected into per-game {@code int} arrays. The partial results
+ * are then added to the target in file order, so the target ends up exactly
+ * as if every line had been passed to {@code logGame} sequentially.
+ * </p>
+ */
+public final class GameStatsImporter {
+
+    /**
+     * Largest chunk handed to one parser; well below the 2 GB limit on a
+     * single mapping.
+     */
+    private static final long MAX_CHUNK_BYTES = 64L << 20;
+
+    /**
+     * Chunks per thread, so that uneven chunks still balance.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Parsed chunks allowed to wait for merging, per thread; bounds the memory
+     * held by partial results.
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+
+        /**
+         * Number of lines added to the target.
+         */
+        private final long rows;
+
+        /**
+         * Number of malformed lines skipped.
+         */
+        private final long rejected;
+
+        /**
+         * Wall-clock time of the import.
+         */
+        private final long nanos;
+
+        /**
+         * Creates a result.
+         *
+         * @param rows
+         *            lines added
+         * @param rejected
+         *            lines skipped
+         * @param nanos
+         *            elapsed time
+         */
+        private Result(long rows, long rejected, long nanos) {
+            this.rows = rows;
+            this.rejected = rejected;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the number of lines added to the target.
+         *
+         * @return the row count
+         */
+        public long rows() {
+            return this.rows;
+        }
+
+        /**
+         * Returns the number of malformed lines skipped.
+         *
+         * @return the rejected count
+         */
+        public long rejected() {
+            return this.rejected;
+        }
+
+        /**
+         * Returns the wall-clock time of the import in nanoseconds.
+         *
+         * @return the elapsed time
+         */
+        public long nanos() {
+            return this.nanos;
+        }
+
+        /**
+         * Returns the import rate in rows per second.
+         *
+         * @return rows per second
+         */
+        public double rowsPerSecond() {
+            return this.rows * 1e9 / Math.max(1, this.nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows (%d rejected) in %.3f s, %.0f rows/s",
+                    this.rows, this.rejected, this.nanos / 1e9,
+                    this.rowsPerSecond());
+        }
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private GameStatsImporter() {
+    }
+
+    /**
+     * Adds every play in the match log {@code file} to {@code target}, parsing
+     * with {@code threads} threads.
+     *
+     * @param file
+     *            the match log
+     * @param target
+     *            the statistics to add to
+     * @param threads
+     *            number of parser threads
+     * @return the number of rows imported and rejected, and the time taken
+     * @throws IOException
+     *             if the file cannot be read
+     * @requires file != null and target != null and threads > 0
+     * @ensures target = #target with every valid line of file logged in order
+     */
+    public static Result importFile(Path file, GameStats target, int threads)
+            throws IOException {
+        assert file != null : "Violation of: file is not null";
+        assert target != null : "Violation of: target is not null";
+        assert threads > 0 : "Violation of: threads > 0";
+
+        long start = System.nanoTime();
+        long rows = 0;
+        long rejected = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, threads);
+            Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            int window = threads * IN_FLIGHT_PER_THREAD;
+            while (next < bounds.length - 1 || !inFlight.isEmpty()) {
+                while (next < bounds.length - 1 && inFlight.size() < window) {
+                    MappedByteBuffer bytes = channel.map(
+                            FileChannel.MapMode.READ_ONLY, bounds[next],
+                            bounds[next + 1] - bounds[next]);
+                    inFlight.add(pool.submit(() -> parse(bytes)));
+                    next++;
+                }
+                Chunk chunk = await(inFlight.remove());
+                chunk.mergeInto(target);
+                rows += chunk.rows;
+                rejected += chunk.rejected;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Result(rows, rejected, System.nanoTime() - start);
+    }
+
+    /**
+     * Waits for a parsed chunk, rethrowing any failure.
+     *
+     * @param future
+     *            the pending chunk
+     * @return the parsed chunk
+     * @throws IOException
+     *             if the mapped file could not be read
+     */
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Splits the file into line-aligned chunks.
+     *
+     * @param channel
+     *            the open file
+     * @param threads
+     *            number of parser threads
+     * @return chunk boundaries {@code b} such that chunk {@code i} is
+     *         {@code [b[i], b[i+1])}, each starting at the beginning of a line
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static long[] chunkBounds(FileChannel channel, int threads)
+            throws IOException {
+        long size = channel.size();
+        long target = Math.max(1,
+                Math.min(MAX_CHUNK_BYTES,
+                        size / ((long) threads * CHUNKS_PER_THREAD)));
+        long[] bounds = new long[16];
+        int count = 1;
+        bounds[0] = 0;
+        long pos = 0;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        while (pos < size) {
+            long end = Math.min(size, pos + target);
+            if (end < size) {
+                end = nextLineStart(channel, end, probe);
+            }
+            if (count == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            }
+            bounds[count] = end;
+            count++;
+            pos = end;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Returns the offset just past the first newline at or after
+     * {@code from}, or the file size if there is none.
+     *
+     * @param channel
+     *            the open file
+     * @param from
+     *            offset to start searching at
+     * @param probe
+     *            scratch buffer
+     * @return start of the next line
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static long nextLineStart(FileChannel channel, long from,
+            ByteBuffer probe) throws IOException {
+        long pos = from;
+        while (true) {
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Parses one chunk of mapped bytes.
+     *
+     * @param bytes
+     *            the chunk, starting at the beginning of a line
+     * @return the per-game scores found in the chunk
+     */
+    private static Chunk parse(ByteBuffer bytes) {
+        Chunk chunk = new Chunk(bytes);
+        int limit = bytes.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            chunk.parseLine(lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * Partial result for one chunk: its distinct games in order of first
+     * appearance, each with the scores logged for it in the chunk.
+     */
+    private static final class Chunk {
+
+        /**
+         * Initial number of slots in the name hash table; a power of two.
+         */
+        private static final int INITIAL_SLOTS = 64;
+
+        /**
+         * The mapped bytes being parsed.
+         */
+        private final ByteBuffer bytes;
+
+        /**
+         * Open-addressing hash table from name hash to game id + 1 (0 marks an
+         * empty slot).
+         */
+        private int[] slots = new int[INITIAL_SLOTS];
+
+        /**
+         * Hash of each game's name, by game id.
+         */
+        private int[] hashes = new int[INITIAL_SLOTS];
+
+        /**
+         * UTF-8 bytes of each game's name, by game id.
+         */
+        private byte[][] nameBytes = new byte[INITIAL_SLOTS][];
+
+        /**
+         * Decoded name of each game, by game id.
+         */
+        private String[] names = new String[INITIAL_SLOTS];
+
+        /**
+         * Scores of each game, by game id.
+         */
+        private ScoreList[] scores = new ScoreList[INITIAL_SLOTS];
+
+        /**
+         * Number of distinct games seen.
+         */
+        private int games;
+
+        /**
+         * Number of lines accepted.
+         */
+        private long rows;
+
+        /**
+         * Number of malformed lines skipped.
+         */
+        private long rejected;
+
+        /**
+         * Creates an empty partial result over {@code bytes}.
+         *
+         * @param bytes
+         *            the chunk being parsed
+         */
+        Chunk(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Parses the line {@code [start, end)}, excluding its newline.
+         *
+         * @param start
+         *            offset of the first byte of the line
+         * @param end
+         *            offset of the newline, or the chunk limit
+         */
+        void parseLine(int start, int end) {
+            int last = end;
+            if (last > start && this.bytes.get(last - 1) == '\r') {
+                last--;
+            }
+            if (last == start) {
+                return;
+            }
+            int comma = last - 1;
+            while (comma >= start && this.bytes.get(comma) != ',') {
+                comma--;
+            }
+            if (comma <= start || comma == last - 1) {
+                this.rejected++;
+                return;
+            }
+            long score = 0;
+            for (int i = comma + 1; i < last; i++) {
+                int digit = this.bytes.get(i) - '0';
+                if (digit < 0 || digit > 9 || score > Integer.MAX_VALUE) {
+                    this.rejected++;
+                    return;
+                }
+                score = 10 * score + digit;
+            }
+            if (score > Integer.MAX_VALUE) {
+                this.rejected++;
+                return;
+            }
+            int id = this.lookup(start, comma);
+            this.scores[id].add((int) score);
+            this.rows++;
+        }
+
+        /**
+         * Returns the id of the game named by bytes {@code [start, end)},
+         * adding it if it has not been seen in this chunk.
+         *
+         * @param start
+         *            offset of the first byte of the name
+         * @param end
+         *            offset just past the name
+         * @return the game id
+         */
+        private int lookup(int start, int end) {
+            int hash = 0x811c9dc5;
+            for (int i = start; i < end; i++) {
+                hash = (hash ^ this.bytes.get(i)) * 0x01000193;
+            }
+            int mask = this.slots.length - 1;
+            int slot = hash & mask;
+            while (this.slots[slot] != 0) {
+                int id = this.slots[slot] - 1;
+                if (this.hashes[id] == hash && this.sameName(id, start, end)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return this.insert(slot, hash, start, end);
+        }
+
+        /**
+         * Reports whether game {@code id} is named by bytes
+         * {@code [start, end)}.
+         *
+         * @param id
+         *            the game id
+         * @param start
+         *            offset of the first byte of the name
+         * @param end
+         *            offset just past the name
+         * @return true iff the names are equal
+         */
+        private boolean sameName(int id, int start, int end) {
+            byte[] name = this.nameBytes[id];
+            if (name.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (name[i] != this.bytes.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds a new game named by bytes {@code [start, end)} at the empty
+         * {@code slot}, growing the table if it becomes half full.
+         *
+         * @param slot
+         *            an empty slot for {@code hash}
+         * @param hash
+         *            hash of the name
+         * @param start
+         *            offset of the first byte of the name
+         * @param end
+         *            offset just past the name
+         * @return the new game id
+         */
+        private int insert(int slot, int hash, int start, int end) {
+            int id = this.games;
+            if (id == this.names.length) {
+                int capacity = 2 * id;
+                this.hashes = Arrays.copyOf(this.hashes, capacity);
+                this.nameBytes = Arrays.copyOf(this.nameBytes, capacity);
+                this.names = Arrays.copyOf(this.names, capacity);
+                this.scores = Arrays.copyOf(this.scores, capacity);
+            }
+            byte[] name = new byte[end - start];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = this.bytes.get(start + i);
+            }
+            this.hashes[id] = hash;
+            this.nameBytes[id] = name;
+            this.names[id] = new String(name, StandardCharsets.UTF_8);
+            this.scores[id] = new ScoreList();
+            this.slots[slot] = id + 1;
+            this.games++;
+            if (2 * this.games > this.slots.length) {
+                this.rehash();
+            }
+            return id;
+        }
+
+        /**
+         * Doubles the hash table.
+         */
+        private void rehash() {
+            int[] bigger = new int[2 * this.slots.length];
+            int mask = bigger.length - 1;
+            for (int id = 0; id < this.games; id++) {
+                int slot = this.hashes[id] & mask;
+                while (bigger[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                bigger[slot] = id + 1;
+            }
+            this.slots = bigger;
+        }
+
+        /**
+         * Logs every score in this chunk to {@code target}, game by game,
+         * keeping each game's scores in file order.
+         *
+         * @param target
+         *            the statistics to add to
+         */
+        void mergeInto(GameStats target) {
+            for (int id = 0; id < this.games; id++) {
+                String game = this.names[id];
+                ScoreList list = this.scores[id];
+                for (int i = 0; i < list.length(); i++) {
+                    target.logGame(game, list.get(i));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package components.gamestats;
+
+import java.util.List;
+
+/**
+ * Receives batches of {@link GameStatsEvent}s from an
+ * {@link ObservableGameStats}.
+ * <p>
+ * Listeners are called on the dispatcher thread, never on the thread calling
+ * {@code logGame}, so a slow listener delays only later deliveries.
+ * </p>
+ */
+public interface GameStatsListener {
+
+    /**
+     * Handles a batch of events, in the order they occurred.
+     *
+     * @param events
+     *            the events; only kinds this listener subscribed to
+     * @requires events is not empty
+     */
+    void onEvents(List<GameStatsEvent> events);
+}
@@ -37,7 +37,7 @@ public abstract class GameStatsSecondary implements GameStats {
         if (count == 0) {
             return -1;
         }
-        int sum = 0;
+        long sum = 0;
         for (int i = 0; i < count; i++) {
             sum += this.getScoreAt(game, i);
         }
@@ -57,6 +57,67 @@ public abstract class GameStatsSecondary implements GameStats {
         return scores;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getGamesWithPrefix(String prefix) {
+        assert prefix != null : "Violation of: prefix is not null";
+
+        Set<String> games = this.getGames();
+        Set<String> result = games.newInstance();
+        for (String g : games) {
+            if (g.startsWith(prefix)) {
+                result.add(g);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalGamesPlayedWithPrefix(String prefix) {
+        long total = 0;
+        for (String g : this.getGamesWithPrefix(prefix)) {
+            total += this.getTotalGamesPlayed(g);
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBestScoreWithPrefix(String prefix) {
+        int best = -1;
+        for (String g : this.getGamesWithPrefix(prefix)) {
+            best = Math.max(best, this.getBestScore(g));
+        }
+        return best;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getAverageScoreWithPrefix(String prefix) {
+        long count = 0;
+        long sum = 0;
+        for (String g : this.getGamesWithPrefix(prefix)) {
+            int n = this.getTotalGamesPlayed(g);
+            for (int i = 0; i < n; i++) {
+                sum += this.getScoreAt(g, i);
+            }
+            count += n;
+        }
+        if (count == 0) {
+            return -1;
+        }
+        return (double) sum / count;
+    }
+
     /**
      * {@inheritDoc}
      */
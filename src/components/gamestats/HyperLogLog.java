@@ -0,0 +1,463 @@
+package components.gamestats;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct strings added to it,
+ * in at most {@code 2^precision} bytes.
+ * <p>
+ * Each string is hashed to 64 bits; the top {@code precision} bits choose a
+ * register, which keeps the largest "position of the first 1-bit" seen in the
+ * remaining bits. The standard error of the estimate is about
+ * {@code 1.04 / sqrt(2^precision)} (2.3% at the default precision of 11, for
+ * 2 KB per sketch). Small cardinalities are estimated by linear counting,
+ * which is nearly exact.
+ * </p>
+ * <p>
+ * Most games have few players, so a sketch starts out sparse: it keeps only
+ * its non-zero registers, as a sorted array of {@code int}s packing the
+ * register index and value. Once that array would outgrow the dense
+ * registers, i.e. past {@code 2^precision / 4} non-zero registers (512 at the
+ * default precision), the sketch switches to one byte per register for good.
+ * An empty sketch thus costs a few dozen bytes instead of 2 KB, and a sketch
+ * of ten players a few dozen more. Both forms give the same estimates.
+ * </p>
+ * <p>
+ * Sketches of the same precision can be {@linkplain #merge(HyperLogLog)
+ * merged}; the result is the sketch of the union of the two inputs, so
+ * per-instance sketches can be combined without double-counting players seen
+ * by both.
+ * </p>
+ */
+public final class HyperLogLog {
+
+    /**
+     * Default precision: 2048 registers, at most 2 KB, about 2.3% standard
+     * error.
+     */
+    public static final int DEFAULT_PRECISION = 11;
+
+    /**
+     * Smallest supported precision.
+     */
+    public static final int MIN_PRECISION = 4;
+
+    /**
+     * Largest supported precision.
+     */
+    public static final int MAX_PRECISION = 16;
+
+    /**
+     * Shared entry array of new, empty sketches.
+     */
+    private static final int[] NO_ENTRIES = {};
+
+    /**
+     * Number of bits used to choose a register.
+     */
+    private final int precision;
+
+    /**
+     * One register per bucket, holding the largest rank seen; {@code null}
+     * while the sketch is sparse.
+     */
+    private byte[] registers;
+
+    /**
+     * While the sketch is sparse, its non-zero registers as
+     * {@code index << 8 | rank}, sorted, in the first {@code sparseSize}
+     * elements; {@code null} once dense.
+     */
+    private int[] sparse;
+
+    /**
+     * Number of entries used in {@code sparse}.
+     */
+    private int sparseSize;
+
+    /**
+     * Creates an empty sketch with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty sketch with {@code 2^precision} registers.
+     *
+     * @param precision
+     *            number of bits used to choose a register
+     * @requires MIN_PRECISION <= precision <= MAX_PRECISION
+     */
+    public HyperLogLog(int precision) {
+        this(precision, NO_ENTRIES, 0);
+    }
+
+    /**
+     * Creates a sparse sketch over existing entries, taking ownership of the
+     * array.
+     *
+     * @param precision
+     *            number of bits used to choose a register
+     * @param sparse
+     *            the sorted entries
+     * @param sparseSize
+     *            number of entries used
+     */
+    private HyperLogLog(int precision, int[] sparse, int sparseSize) {
+        assert MIN_PRECISION <= precision
+                && precision <= MAX_PRECISION : "Violation of: "
+                        + "precision in range";
+        this.precision = precision;
+        this.sparse = sparse;
+        this.sparseSize = sparseSize;
+    }
+
+    /**
+     * Creates a sketch over existing registers, taking ownership of the array
+     * unless so few registers are set that the sketch is kept sparse.
+     *
+     * @param precision
+     *            number of bits used to choose a register
+     * @param registers
+     *            the registers
+     * @requires MIN_PRECISION <= precision <= MAX_PRECISION and
+     *           registers.length = 2^precision
+     */
+    HyperLogLog(int precision, byte[] registers) {
+        assert MIN_PRECISION <= precision
+                && precision <= MAX_PRECISION : "Violation of: "
+                        + "precision in range";
+        assert registers.length == 1 << precision : "Violation of: "
+                + "registers.length = 2^precision";
+        this.precision = precision;
+        int size = 0;
+        for (byte r : registers) {
+            if (r != 0) {
+                size++;
+            }
+        }
+        if (size > registers.length / 4) {
+            this.registers = registers;
+        } else {
+            this.sparse = new int[size];
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    this.sparse[this.sparseSize++] = i << 8 | registers[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a sparse sketch over existing entries, taking ownership of the
+     * array.
+     *
+     * @param precision
+     *            number of bits used to choose a register
+     * @param entries
+     *            the non-zero registers as {@code index << 8 | rank}
+     * @requires MIN_PRECISION <= precision <= MAX_PRECISION and entries is
+     *           sorted by index, with distinct indexes below 2^precision and
+     *           non-zero ranks, and entries.length <= 2^precision / 4
+     */
+    HyperLogLog(int precision, int[] entries) {
+        this(precision, entries, entries.length);
+        assert entries.length <= (1 << precision) / 4 : "Violation of: "
+                + "entries.length <= 2^precision / 4";
+    }
+
+    /**
+     * Returns a 64-bit hash of {@code s}: FNV-1a over its characters,
+     * finished with the MurmurHash3 mixer so that every output bit depends on
+     * every input bit.
+     *
+     * @param s
+     *            the string
+     * @return the hash
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Adds {@code item} to the sketch.
+     *
+     * @param item
+     *            the item, e.g. a player identifier
+     * @requires item != null
+     */
+    public void add(String item) {
+        assert item != null : "Violation of: item is not null";
+
+        long h = hash(item);
+        int index = (int) (h >>> (Long.SIZE - this.precision));
+        long rest = h << this.precision | 1L << (this.precision - 1);
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        this.raise(index, rank);
+    }
+
+    /**
+     * Raises register {@code index} to {@code rank} if it is lower, switching
+     * to dense registers if the sparse entries are full.
+     *
+     * @param index
+     *            the register
+     * @param rank
+     *            the rank seen
+     * @requires rank > 0
+     */
+    private void raise(int index, byte rank) {
+        if (this.registers != null) {
+            if (rank > this.registers[index]) {
+                this.registers[index] = rank;
+            }
+            return;
+        }
+        int pos = this.find(index);
+        if (pos >= 0) {
+            if (rank > (this.sparse[pos] & 0xFF)) {
+                this.sparse[pos] = index << 8 | rank;
+            }
+            return;
+        }
+        int limit = (1 << this.precision) / 4;
+        if (this.sparseSize == limit) {
+            this.toDense();
+            this.registers[index] = rank;
+            return;
+        }
+        if (this.sparseSize == this.sparse.length) {
+            this.sparse = Arrays.copyOf(this.sparse,
+                    Math.min(Math.max(4, 2 * this.sparseSize), limit));
+        }
+        pos = -pos - 1;
+        System.arraycopy(this.sparse, pos, this.sparse, pos + 1,
+                this.sparseSize - pos);
+        this.sparse[pos] = index << 8 | rank;
+        this.sparseSize++;
+    }
+
+    /**
+     * Finds the sparse entry of register {@code index}.
+     *
+     * @param index
+     *            the register
+     * @return its position in {@code sparse}, or
+     *         {@code -(insertion point) - 1} if it is zero
+     */
+    private int find(int index) {
+        int lo = 0;
+        int hi = this.sparseSize - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int at = this.sparse[mid] >>> 8;
+            if (at < index) {
+                lo = mid + 1;
+            } else if (at > index) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    /**
+     * Switches from sparse entries to one byte per register.
+     */
+    private void toDense() {
+        this.registers = this.registers();
+        this.sparse = null;
+        this.sparseSize = 0;
+    }
+
+    /**
+     * Returns the estimated number of distinct items added.
+     *
+     * @return the cardinality estimate
+     */
+    public long estimate() {
+        int m = 1 << this.precision;
+        double sum = 0;
+        int zeros = 0;
+        if (this.registers != null) {
+            for (byte r : this.registers) {
+                sum += 1.0 / (1L << r);
+                if (r == 0) {
+                    zeros++;
+                }
+            }
+        } else {
+            zeros = m - this.sparseSize;
+            sum = zeros;
+            for (int i = 0; i < this.sparseSize; i++) {
+                sum += 1.0 / (1L << (this.sparse[i] & 0xFF));
+            }
+        }
+        // bias correction; the closed form only holds for m >= 128
+        double alpha;
+        if (m == 16) {
+            alpha = 0.673;
+        } else if (m == 32) {
+            alpha = 0.697;
+        } else if (m == 64) {
+            alpha = 0.709;
+        } else {
+            alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        double raw = alpha * m * m / sum;
+        if (raw <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(raw);
+    }
+
+    /**
+     * Reports whether nothing has been added to the sketch.
+     *
+     * @return true iff every register is zero
+     */
+    public boolean isEmpty() {
+        if (this.registers == null) {
+            return this.sparseSize == 0;
+        }
+        for (byte r : this.registers) {
+            if (r != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges {@code other} into this sketch, which then estimates the number
+     * of distinct items added to either.
+     *
+     * @param other
+     *            the sketch to merge in
+     * @requires other.precision() = this.precision()
+     */
+    public void merge(HyperLogLog other) {
+        assert other.precision == this.precision : "Violation of: "
+                + "same precision";
+
+        if (other.registers == null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                int e = other.sparse[i];
+                this.raise(e >>> 8, (byte) e);
+            }
+            return;
+        }
+        if (this.registers == null) {
+            this.toDense();
+        }
+        for (int i = 0; i < this.registers.length; i++) {
+            if (other.registers[i] > this.registers[i]) {
+                this.registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Returns an independent copy of this sketch.
+     *
+     * @return the copy
+     */
+    public HyperLogLog copy() {
+        if (this.registers == null) {
+            return new HyperLogLog(this.precision,
+                    Arrays.copyOf(this.sparse, this.sparseSize),
+                    this.sparseSize);
+        }
+        return new HyperLogLog(this.precision, this.registers.clone());
+    }
+
+    /**
+     * Returns the number of bits used to choose a register.
+     *
+     * @return the precision
+     */
+    public int precision() {
+        return this.precision;
+    }
+
+    /**
+     * Returns the registers, one byte each. A dense sketch returns its own
+     * array; a sparse one builds a new array.
+     *
+     * @return the registers
+     */
+    byte[] registers() {
+        if (this.registers != null) {
+            return this.registers;
+        }
+        byte[] result = new byte[1 << this.precision];
+        for (int i = 0; i < this.sparseSize; i++) {
+            int e = this.sparse[i];
+            result[e >>> 8] = (byte) e;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the non-zero registers of a sparse sketch as
+     * {@code index << 8 | rank}, sorted by index.
+     *
+     * @return a copy of the entries
+     * @requires this is sparse
+     */
+    int[] entries() {
+        assert this.registers == null : "Violation of: this is sparse";
+        return Arrays.copyOf(this.sparse, this.sparseSize);
+    }
+
+    /**
+     * Reports whether the sketch still keeps only its non-zero registers.
+     *
+     * @return true iff the sketch is sparse
+     */
+    boolean isSparse() {
+        return this.registers == null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof HyperLogLog)) {
+            return false;
+        }
+        HyperLogLog other = (HyperLogLog) obj;
+        if (this.precision != other.precision) {
+            return false;
+        }
+        if (this.registers == null && other.registers == null) {
+            return Arrays.equals(this.sparse, 0, this.sparseSize, other.sparse,
+                    0, other.sparseSize);
+        }
+        return Arrays.equals(this.registers(), other.registers());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.precision + Arrays.hashCode(this.registers());
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog(precision " + this.precision + ", estimate "
+                + this.estimate() + ")";
+    }
+
+}
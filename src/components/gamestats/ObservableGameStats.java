@@ -0,0 +1,731 @@
+package components.gamestats;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import components.set.Set;
+
+/**
+ * A {@code GameStats} that publishes a change feed to subscribers.
+ * <p>
+ * All statistics are held by a wrapped kernel. Each
+ * {@link #logGame(String, int)} updates the kernel and, if anyone has
+ * subscribed to the corresponding kind, queues a {@link GameStatsEvent}:
+ * {@code SCORE_LOGGED} for every score, {@code NEW_BEST} when the score beats
+ * the game's previous best, and {@code MILESTONE} when the game's play count
+ * reaches one of the configured milestones. A single dispatcher thread drains
+ * the queue in batches and hands each subscriber the events of the kinds it
+ * asked for. The calling thread only ever appends to the queue, so the cost
+ * of {@code logGame} does not depend on the number of subscribers or on how
+ * long they take.
+ * </p>
+ * <p>
+ * The queue is bounded, and {@code logGame} never waits for room in it. If
+ * subscribers fall so far behind that the queue is full, a
+ * {@code SCORE_LOGGED} event is dropped, while {@code NEW_BEST} and
+ * {@code MILESTONE} events are set aside and coalesced per game and kind: a
+ * new best that arrives while an earlier one for the same game is still set
+ * aside replaces it, keeping the earlier previous best, and a milestone
+ * replaces the lower one. Set-aside events are delivered as soon as the
+ * dispatcher catches up, possibly out of order with the queued ones. Every
+ * event dropped or coalesced away is counted in {@link #droppedEvents()};
+ * {@link #queueDepth()} tells how far behind the dispatcher is.
+ * </p>
+ * <p>
+ * Like the kernels, instances are not safe for concurrent {@code logGame}
+ * calls; {@link #subscribe}, {@link #unsubscribe} and {@link #flush()} may be
+ * called from any thread. Call {@link #close()} to stop the dispatcher.
+ * </p>
+ */
+public final class ObservableGameStats extends GameStatsSecondary
+        implements Closeable {
+
+    /**
+     * Default play-count milestones.
+     */
+    private static final int[] DEFAULT_MILESTONES = { 10, 100, 1_000,
+            10_000, 100_000, 1_000_000 };
+
+    /**
+     * Maximum number of events handed to a listener in one call.
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Default capacity of the event queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+
+    /**
+     * Queued to wake the dispatcher when an event has been set aside.
+     */
+    private static final Object WAKE = new Object();
+
+    /**
+     * Queued by {@link #close()}; the dispatcher stops once it has handled
+     * the batch holding it.
+     */
+    private static final Object CLOSE = new Object();
+
+    /**
+     * Per-game state needed to detect new bests and milestones.
+     */
+    private static final class GameState {
+
+        /**
+         * Highest score logged.
+         */
+        private int best = -1;
+
+        /**
+         * Number of scores logged.
+         */
+        private int plays;
+    }
+
+    /**
+     * A listener and the kinds of event it wants.
+     */
+    private static final class Subscription {
+
+        /**
+         * The listener.
+         */
+        private final GameStatsListener listener;
+
+        /**
+         * Bit mask of the {@code Kind} ordinals wanted.
+         */
+        private final int kinds;
+
+        /**
+         * Creates a subscription.
+         *
+         * @param listener
+         *            the listener
+         * @param kinds
+         *            bit mask of the kinds wanted
+         */
+        Subscription(GameStatsListener listener, int kinds) {
+            this.listener = listener;
+            this.kinds = kinds;
+        }
+    }
+
+    /**
+     * Statistics being observed.
+     */
+    private final GameStats kernel;
+
+    /**
+     * Sorted play counts at which {@code MILESTONE} is emitted.
+     */
+    private final int[] milestones;
+
+    /**
+     * Capacity of {@code queue}.
+     */
+    private final int capacity;
+
+    /**
+     * Best score and play count of each game.
+     */
+    private HashMap<String, GameState> states = new HashMap<>();
+
+    /**
+     * Current subscriptions.
+     */
+    private final List<Subscription> subscriptions =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * Union of the kinds wanted by current subscriptions; events of other
+     * kinds are not even created.
+     */
+    private volatile int interest;
+
+    /**
+     * Events (and flush markers, as {@code CountDownLatch}es) waiting for the
+     * dispatcher.
+     */
+    private final LinkedBlockingQueue<Object> queue;
+
+    /**
+     * {@code NEW_BEST} and {@code MILESTONE} events set aside while the queue
+     * was full, keyed by kind and game; guarded by itself.
+     */
+    private final Map<String, GameStatsEvent> overflow = new LinkedHashMap<>();
+
+    /**
+     * Dispatcher thread, started by the first subscription.
+     */
+    private Thread dispatcher;
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Held while queueing a flush marker or {@code CLOSE}, so that no flush
+     * marker can be queued behind {@code CLOSE}, where it would never be
+     * handled.
+     */
+    private final Object markerLock = new Object();
+
+    /**
+     * Number of listener calls that threw.
+     */
+    private volatile long listenerFailures;
+
+    /**
+     * Number of events dropped or coalesced because the queue was full.
+     */
+    private volatile long droppedEvents;
+
+    /**
+     * Wraps {@code kernel} with the default milestones (10, 100, 1000, ...
+     * plays).
+     *
+     * @param kernel
+     *            the statistics to observe
+     */
+    public ObservableGameStats(GameStats kernel) {
+        this(kernel, DEFAULT_MILESTONES);
+    }
+
+    /**
+     * Wraps {@code kernel}, emitting {@code MILESTONE} events at the given
+     * play counts.
+     *
+     * @param kernel
+     *            the statistics to observe
+     * @param milestones
+     *            play counts at which to emit {@code MILESTONE}
+     * @requires kernel != null and every milestone > 0
+     */
+    public ObservableGameStats(GameStats kernel, int[] milestones) {
+        this(kernel, milestones, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Wraps {@code kernel}, emitting {@code MILESTONE} events at the given
+     * play counts and queueing at most {@code capacity} events.
+     *
+     * @param kernel
+     *            the statistics to observe
+     * @param milestones
+     *            play counts at which to emit {@code MILESTONE}
+     * @param capacity
+     *            capacity of the event queue
+     * @requires kernel != null and capacity > 0 and every milestone > 0
+     */
+    public ObservableGameStats(GameStats kernel, int[] milestones,
+            int capacity) {
+        assert kernel != null : "Violation of: kernel is not null";
+        assert capacity > 0 : "Violation of: capacity > 0";
+        this.kernel = kernel;
+        this.capacity = capacity;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.milestones = milestones.clone();
+        Arrays.sort(this.milestones);
+        for (String game : kernel.getGames()) {
+            GameState state = new GameState();
+            state.best = kernel.getBestScore(game);
+            state.plays = kernel.getTotalGamesPlayed(game);
+            this.states.put(game, state);
+        }
+    }
+
+    //Subscriptions
+
+    /**
+     * Subscribes {@code listener} to events of the given kinds.
+     *
+     * @param listener
+     *            the listener
+     * @param kinds
+     *            the kinds of event to deliver
+     * @requires listener != null and kinds is not empty
+     */
+    public void subscribe(GameStatsListener listener,
+            EnumSet<GameStatsEvent.Kind> kinds) {
+        assert listener != null : "Violation of: listener is not null";
+        assert !kinds.isEmpty() : "Violation of: kinds is not empty";
+
+        int mask = 0;
+        for (GameStatsEvent.Kind k : kinds) {
+            mask |= 1 << k.ordinal();
+        }
+        synchronized (this.subscriptions) {
+            if (this.closed) {
+                throw new IllegalStateException(
+                        "ObservableGameStats is closed");
+            }
+            if (this.dispatcher == null) {
+                this.dispatcher = new Thread(this::runDispatcher,
+                        "ObservableGameStats-dispatcher");
+                this.dispatcher.setDaemon(true);
+                this.dispatcher.start();
+            }
+            this.subscriptions.add(new Subscription(listener, mask));
+            this.interest |= mask;
+        }
+    }
+
+    /**
+     * Subscribes {@code listener} to every kind of event.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void subscribe(GameStatsListener listener) {
+        this.subscribe(listener, EnumSet.allOf(GameStatsEvent.Kind.class));
+    }
+
+    /**
+     * Removes every subscription of {@code listener}. Events already queued
+     * may still be delivered to it.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void unsubscribe(GameStatsListener listener) {
+        synchronized (this.subscriptions) {
+            int mask = 0;
+            for (Subscription s : this.subscriptions) {
+                if (s.listener == listener) {
+                    this.subscriptions.remove(s);
+                } else {
+                    mask |= s.kinds;
+                }
+            }
+            this.interest = mask;
+        }
+    }
+
+    /**
+     * Waits until every event queued before this call has been delivered.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        synchronized (this.markerLock) {
+            Thread d;
+            synchronized (this.subscriptions) {
+                d = this.dispatcher;
+            }
+            // close() sets closed before it queues CLOSE under markerLock
+            if (d == null || !d.isAlive() || this.closed) {
+                return;
+            }
+            this.queue.put(done);
+        }
+        done.await();
+    }
+
+    /**
+     * Returns the number of items waiting for the dispatcher, at most the
+     * queue capacity. A depth that stays near the capacity means the
+     * subscribers cannot keep up and events are being dropped.
+     *
+     * @return the queue depth
+     */
+    public int queueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Returns the number of events that were never delivered because the
+     * queue was full: {@code SCORE_LOGGED} events dropped, and
+     * {@code NEW_BEST} and {@code MILESTONE} events coalesced into a later
+     * one for the same game.
+     *
+     * @return the drop count
+     */
+    public long droppedEvents() {
+        return this.droppedEvents;
+    }
+
+    /**
+     * Returns the number of listener calls that threw an exception. Such
+     * exceptions are otherwise ignored so that one faulty listener does not
+     * stop delivery to the others.
+     *
+     * @return the failure count
+     */
+    public long listenerFailures() {
+        return this.listenerFailures;
+    }
+
+    /**
+     * Delivers the events still queued, then stops the dispatcher.
+     */
+    @Override
+    public void close() {
+        Thread d;
+        synchronized (this.subscriptions) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.interest = 0;
+            d = this.dispatcher;
+        }
+        if (d == null) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (this.markerLock) {
+            while (true) {
+                try {
+                    this.queue.put(CLOSE);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        while (d.isAlive()) {
+            try {
+                d.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        // release any flush still waiting if the dispatcher died early
+        for (Object item : this.queue) {
+            if (item instanceof CountDownLatch) {
+                ((CountDownLatch) item).countDown();
+            }
+        }
+        this.queue.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Dispatch
+
+    /**
+     * Queues an event of {@code kind}, or, if the queue is full, drops or
+     * sets it aside.
+     *
+     * @param kind
+     *            the kind of event
+     * @param game
+     *            the game
+     * @param score
+     *            the score logged
+     * @param previousBest
+     *            the best score before this one
+     * @param plays
+     *            the play count after this score
+     */
+    private void publish(GameStatsEvent.Kind kind, String game, int score,
+            int previousBest, int plays) {
+        GameStatsEvent event = new GameStatsEvent(kind, game, score,
+                previousBest, plays);
+        if (this.queue.offer(event)) {
+            return;
+        }
+        if (kind == GameStatsEvent.Kind.SCORE_LOGGED) {
+            this.droppedEvents++;
+            return;
+        }
+        String key = kind.ordinal() + game;
+        synchronized (this.overflow) {
+            GameStatsEvent earlier = this.overflow.get(key);
+            if (earlier != null) {
+                this.droppedEvents++;
+                if (kind == GameStatsEvent.Kind.NEW_BEST) {
+                    event = new GameStatsEvent(kind, game, score,
+                            earlier.previousBest(), plays);
+                }
+            }
+            this.overflow.put(key, event);
+        }
+        /*
+         * If this fails the queue is still full, and the dispatcher looks at
+         * the set-aside events after draining it
+         */
+        this.queue.offer(WAKE);
+    }
+
+    /**
+     * Delivers the events set aside while the queue was full.
+     */
+    private void deliverOverflow() {
+        List<GameStatsEvent> events;
+        synchronized (this.overflow) {
+            if (this.overflow.isEmpty()) {
+                return;
+            }
+            events = new ArrayList<>(this.overflow.values());
+            this.overflow.clear();
+        }
+        this.deliver(events);
+    }
+
+    /**
+     * Body of the dispatcher thread: drains the queue in batches and delivers
+     * each batch to the subscribers, until closed.
+     */
+    private void runDispatcher() {
+        List<Object> batch = new ArrayList<>(MAX_BATCH);
+        List<GameStatsEvent> events = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.queue.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = false;
+            for (Object item : batch) {
+                if (item instanceof GameStatsEvent) {
+                    events.add((GameStatsEvent) item);
+                } else if (item == CLOSE) {
+                    stop = true;
+                } else if (item != WAKE) {
+                    this.deliver(events);
+                    events.clear();
+                    this.deliverOverflow();
+                    ((CountDownLatch) item).countDown();
+                }
+            }
+            this.deliver(events);
+            events.clear();
+            this.deliverOverflow();
+            batch.clear();
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands each subscriber the events in {@code events} of the kinds it
+     * asked for.
+     *
+     * @param events
+     *            the events to deliver
+     */
+    private void deliver(List<GameStatsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        for (Subscription s : this.subscriptions) {
+            List<GameStatsEvent> mine = new ArrayList<>(events.size());
+            for (GameStatsEvent e : events) {
+                if ((s.kinds & 1 << e.kind().ordinal()) != 0) {
+                    mine.add(e);
+                }
+            }
+            if (!mine.isEmpty()) {
+                try {
+                    s.listener.onEvents(mine);
+                } catch (RuntimeException ex) {
+                    this.listenerFailures++;
+                }
+            }
+        }
+    }
+
+    //Kernel Methods
+
+    @Override
+    public void logGame(String game, int score) {
+        assert game != null : "Violation of: game is not null";
+        assert score >= 0 : "Violation of: score >= 0";
+
+        this.kernel.logGame(game, score);
+        this.publishLogged(game, score);
+    }
+
+    /**
+     * Updates the state of {@code game} for a score just logged to the
+     * kernel, and queues the events it causes.
+     *
+     * @param game
+     *            the game
+     * @param score
+     *            the score logged
+     */
+    private void publishLogged(String game, int score) {
+        GameState state = this.states.get(game);
+        if (state == null) {
+            state = new GameState();
+            this.states.put(game, state);
+        }
+        int previousBest = state.best;
+        state.plays++;
+        if (score > previousBest) {
+            state.best = score;
+        }
+
+        int mask = this.interest;
+        if (mask != 0) {
+            if ((mask & 1 << GameStatsEvent.Kind.SCORE_LOGGED
+                    .ordinal()) != 0) {
+                this.publish(GameStatsEvent.Kind.SCORE_LOGGED, game, score,
+                        previousBest, state.plays);
+            }
+            if (score > previousBest && (mask
+                    & 1 << GameStatsEvent.Kind.NEW_BEST.ordinal()) != 0) {
+                this.publish(GameStatsEvent.Kind.NEW_BEST, game, score,
+                        previousBest, state.plays);
+            }
+            if ((mask & 1 << GameStatsEvent.Kind.MILESTONE.ordinal()) != 0
+                    && Arrays.binarySearch(this.milestones,
+                            state.plays) >= 0) {
+                this.publish(GameStatsEvent.Kind.MILESTONE, game, score,
+                        previousBest, state.plays);
+            }
+        }
+    }
+
+    @Override
+    public int getBestScore(String game) {
+        assert game != null : "Violation of: game is not null";
+        GameState state = this.states.get(game);
+        if (state == null) {
+            return -1;
+        }
+        return state.best;
+    }
+
+    @Override
+    public int getTotalGamesPlayed(String game) {
+        return this.kernel.getTotalGamesPlayed(game);
+    }
+
+    @Override
+    public Set<String> getGames() {
+        return this.kernel.getGames();
+    }
+
+    @Override
+    protected int getScoreAt(String game, int index) {
+        return this.getAllScores(game).get(index);
+    }
+
+    //Unique players
+
+    @Override
+    public void logGame(String game, int score, String player) {
+        assert game != null : "Violation of: game is not null";
+        assert score >= 0 : "Violation of: score >= 0";
+        assert player != null : "Violation of: player is not null";
+
+        this.kernel.logGame(game, score, player);
+        this.publishLogged(game, score);
+    }
+
+    @Override
+    public long getUniquePlayers(String game) {
+        return this.kernel.getUniquePlayers(game);
+    }
+
+    @Override
+    public HyperLogLog getPlayerSketch(String game) {
+        return this.kernel.getPlayerSketch(game);
+    }
+
+    @Override
+    public void mergePlayerSketch(String game, HyperLogLog sketch) {
+        this.kernel.mergePlayerSketch(game, sketch);
+    }
+
+    @Override
+    public Set<String> getGamesWithPlayers() {
+        return this.kernel.getGamesWithPlayers();
+    }
+
+    //Standard methods
+
+    @Override
+    public void clear() {
+        this.kernel.clear();
+        this.states = new HashMap<>();
+    }
+
+    /**
+     * Returns a new, unsubscribed {@code ObservableGameStats} over a new
+     * instance of the kernel, with the same milestones and queue capacity.
+     *
+     * @return the new instance
+     */
+    @Override
+    public ObservableGameStats newInstance() {
+        return new ObservableGameStats(this.kernel.newInstance(),
+                this.milestones, this.capacity);
+    }
+
+    /**
+     * Moves the statistics of {@code source} into {@code this}. No events are
+     * published; subscriptions stay with their original objects.
+     *
+     * @param source
+     *            the statistics to move into {@code this}
+     */
+    @Override
+    public void transferFrom(GameStats source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        ObservableGameStats src = (ObservableGameStats) source;
+        this.kernel.transferFrom(src.kernel);
+        this.states = src.states;
+        src.states = new HashMap<>();
+    }
+
+    //Enhanced methods, delegated so the kernel's own versions are used
+
+    @Override
+    public void addScore(String game, int score) {
+        this.logGame(game, score);
+    }
+
+    @Override
+    public double getAverageScore(String game) {
+        return this.kernel.getAverageScore(game);
+    }
+
+    @Override
+    public List<Integer> getAllScores(String game) {
+        return this.kernel.getAllScores(game);
+    }
+
+    @Override
+    public Set<String> getGamesWithPrefix(String prefix) {
+        return this.kernel.getGamesWithPrefix(prefix);
+    }
+
+    @Override
+    public long getTotalGamesPlayedWithPrefix(String prefix) {
+        return this.kernel.getTotalGamesPlayedWithPrefix(prefix);
+    }
+
+    @Override
+    public int getBestScoreWithPrefix(String prefix) {
+        return this.kernel.getBestScoreWithPrefix(prefix);
+    }
+
+    @Override
+    public double getAverageScoreWithPrefix(String prefix) {
+        return this.kernel.getAverageScoreWithPrefix(prefix);
+    }
+
+}
@@ -0,0 +1,95 @@
+package components.gamestats;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of {@code int} scores, used where a {@code Sequence<Integer>}
+ * would box every entry.
+ *
+ * <p>
+ * <strong>Convention</strong>
+ * <ul>
+ * <li>{@code 0 <= length <= scores.length}</li>
+ * </ul>
+ * </p>
+ */
+final class ScoreList {
+
+    /**
+     * Initial capacity of the backing array.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Scores; only the first {@code length} entries are meaningful.
+     */
+    private int[] scores;
+
+    /**
+     * Number of scores in the list.
+     */
+    private int length;
+
+    /**
+     * Creates an empty list.
+     */
+    ScoreList() {
+        this.scores = new int[INITIAL_CAPACITY];
+        this.length = 0;
+    }
+
+    /**
+     * Creates a list holding the first {@code length} entries of
+     * {@code scores}, taking ownership of the array.
+     *
+     * @param scores
+     *            the backing array
+     * @param length
+     *            the number of meaningful entries
+     * @requires 0 <= length <= scores.length
+     */
+    ScoreList(int[] scores, int length) {
+        assert 0 <= length
+                && length <= scores.length : "Violation of: length in bounds";
+        this.scores = scores;
+        this.length = length;
+    }
+
+    /**
+     * Appends {@code score} to the end of the list.
+     *
+     * @param score
+     *            the score to append
+     */
+    void add(int score) {
+        if (this.length == this.scores.length) {
+            this.scores = Arrays.copyOf(this.scores,
+                    Math.max(INITIAL_CAPACITY, 2 * this.scores.length));
+        }
+        this.scores[this.length] = score;
+        this.length++;
+    }
+
+    /**
+     * Returns the score at position {@code i}.
+     *
+     * @param i
+     *            the position
+     * @return the score at that position
+     * @requires 0 <= i < length()
+     */
+    int get(int i) {
+        assert 0 <= i && i < this.length : "Violation of: i in bounds";
+        return this.scores[i];
+    }
+
+    /**
+     * Returns the number of scores in the list.
+     *
+     * @return the length
+     */
+    int length() {
+        return this.length;
+    }
+
+}
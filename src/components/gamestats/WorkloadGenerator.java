@@ -0,0 +1,375 @@
+package components.gamestats;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import components.gamestats.WorkloadTrace.Operation;
+
+/**
+ * Synthetic {@link GameStats} workloads shaped like production traffic.
+ * <p>
+ * A generated {@link WorkloadTrace} has these properties:
+ * <ul>
+ * <li><b>Popularity</b>: games are ranked, and the game of rank {@code k} is
+ * chosen with probability proportional to {@code 1 / k^s} (Zipf's law), for
+ * writes and reads alike. The ranking is a random permutation of the games,
+ * so popular games are spread across the name space.</li>
+ * <li><b>Read/write mix</b>: each operation is a read with probability
+ * {@code readFraction}, spread evenly over the read operations of
+ * {@link Operation}, and a {@code LOG} otherwise.</li>
+ * <li><b>Bursty arrivals</b>: arrivals are a Poisson process whose rate
+ * switches between {@code rate} in calm periods and
+ * {@code rate * burstFactor} in bursts. Calm periods and bursts last a
+ * geometrically distributed number of operations, with the given means.</li>
+ * <li><b>Scores</b>: every game has its own score distribution, so scales and
+ * shapes vary between games as they do between real ones. The distribution
+ * is normal (skill-based games), exponential (long-tailed arcade scores) or
+ * uniform, with a mean between 10 and 100,000.</li>
+ * <li><b>Players</b>: each {@code LOG} is by one of {@code players} players,
+ * chosen uniformly, or by no player if {@code players} is 0.</li>
+ * </ul>
+ * Game names follow the hierarchical scheme {@code Title<t>/<mode>/<region>},
+ * so that prefix reads cover several games.
+ * </p>
+ * <p>
+ * Generation is deterministic: the same settings and seed always produce the
+ * same trace.
+ * </p>
+ */
+public final class WorkloadGenerator {
+
+    /**
+     * Default number of games.
+     */
+    public static final int DEFAULT_GAMES = 1000;
+
+    /**
+     * Default Zipf exponent.
+     */
+    public static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+
+    /**
+     * Default fraction of operations that are reads.
+     */
+    public static final double DEFAULT_READ_FRACTION = 0.2;
+
+    /**
+     * Default arrival rate in calm periods, in operations per second.
+     */
+    public static final double DEFAULT_RATE = 50_000;
+
+    /**
+     * Default factor by which bursts raise the arrival rate.
+     */
+    public static final double DEFAULT_BURST_FACTOR = 10;
+
+    /**
+     * Default mean length of a burst, in operations.
+     */
+    public static final int DEFAULT_BURST_LENGTH = 2_000;
+
+    /**
+     * Default mean length of a calm period, in operations.
+     */
+    public static final int DEFAULT_CALM_LENGTH = 20_000;
+
+    /**
+     * Default number of distinct players.
+     */
+    public static final int DEFAULT_PLAYERS = 100_000;
+
+    /**
+     * Modes of each title, the second level of a game name.
+     */
+    private static final String[] MODES = { "Ranked", "Unrated", "Casual" };
+
+    /**
+     * Regions of each mode, the third level of a game name.
+     */
+    private static final String[] REGIONS = { "NA", "EU", "AP" };
+
+    /**
+     * Read operations, chosen among evenly.
+     */
+    private static final Operation[] READS = { Operation.BEST_SCORE,
+            Operation.AVERAGE_SCORE, Operation.TOTAL_PLAYED,
+            Operation.PREFIX_AVERAGE, Operation.UNIQUE_PLAYERS };
+
+    /**
+     * Score distribution of one game.
+     */
+    private static final class ScoreDistribution {
+
+        /**
+         * Shape: 0 normal, 1 exponential, 2 uniform.
+         */
+        private final int shape;
+
+        /**
+         * Mean score.
+         */
+        private final double mean;
+
+        /**
+         * Picks a random shape and mean.
+         *
+         * @param rnd
+         *            source of randomness
+         */
+        ScoreDistribution(Random rnd) {
+            this.shape = rnd.nextInt(3);
+            this.mean = Math.pow(10, 1 + 4 * rnd.nextDouble());
+        }
+
+        /**
+         * Draws a score.
+         *
+         * @param rnd
+         *            source of randomness
+         * @return a non-negative score
+         */
+        int sample(Random rnd) {
+            double x;
+            if (this.shape == 0) {
+                x = this.mean * (1 + rnd.nextGaussian() / 4);
+            } else if (this.shape == 1) {
+                x = -this.mean * Math.log(1 - rnd.nextDouble());
+            } else {
+                x = 2 * this.mean * rnd.nextDouble();
+            }
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, x));
+        }
+    }
+
+    /**
+     * Seed of the random number generator.
+     */
+    private final long seed;
+
+    /**
+     * Number of games.
+     */
+    private int games = DEFAULT_GAMES;
+
+    /**
+     * Zipf exponent of game popularity.
+     */
+    private double zipfExponent = DEFAULT_ZIPF_EXPONENT;
+
+    /**
+     * Fraction of operations that are reads.
+     */
+    private double readFraction = DEFAULT_READ_FRACTION;
+
+    /**
+     * Arrival rate in calm periods, in operations per second.
+     */
+    private double rate = DEFAULT_RATE;
+
+    /**
+     * Factor by which bursts raise the arrival rate.
+     */
+    private double burstFactor = DEFAULT_BURST_FACTOR;
+
+    /**
+     * Mean length of a burst, in operations.
+     */
+    private int burstLength = DEFAULT_BURST_LENGTH;
+
+    /**
+     * Mean length of a calm period, in operations.
+     */
+    private int calmLength = DEFAULT_CALM_LENGTH;
+
+    /**
+     * Number of distinct players.
+     */
+    private int players = DEFAULT_PLAYERS;
+
+    /**
+     * Creates a generator with the default settings.
+     *
+     * @param seed
+     *            seed of the random number generator
+     */
+    public WorkloadGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of games.
+     *
+     * @param n
+     *            number of games
+     * @return this generator
+     * @requires n > 0
+     */
+    public WorkloadGenerator games(int n) {
+        assert n > 0 : "Violation of: n > 0";
+        this.games = n;
+        return this;
+    }
+
+    /**
+     * Sets the Zipf exponent of game popularity; 0 makes every game equally
+     * popular, and larger values concentrate traffic on fewer games.
+     *
+     * @param s
+     *            the exponent
+     * @return this generator
+     * @requires s >= 0
+     */
+    public WorkloadGenerator zipfExponent(double s) {
+        assert s >= 0 : "Violation of: s >= 0";
+        this.zipfExponent = s;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of operations that are reads.
+     *
+     * @param fraction
+     *            the read fraction
+     * @return this generator
+     * @requires 0 <= fraction <= 1
+     */
+    public WorkloadGenerator readFraction(double fraction) {
+        assert 0 <= fraction
+                && fraction <= 1 : "Violation of: 0 <= fraction <= 1";
+        this.readFraction = fraction;
+        return this;
+    }
+
+    /**
+     * Sets the arrival rate in calm periods.
+     *
+     * @param opsPerSecond
+     *            operations per second
+     * @return this generator
+     * @requires opsPerSecond > 0
+     */
+    public WorkloadGenerator rate(double opsPerSecond) {
+        assert opsPerSecond > 0 : "Violation of: opsPerSecond > 0";
+        this.rate = opsPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets how bursty arrivals are. A factor of 1 gives a plain Poisson
+     * process.
+     *
+     * @param factor
+     *            factor by which bursts raise the arrival rate
+     * @param meanBurstLength
+     *            mean length of a burst, in operations
+     * @param meanCalmLength
+     *            mean length of a calm period, in operations
+     * @return this generator
+     * @requires factor >= 1 and meanBurstLength > 0 and meanCalmLength > 0
+     */
+    public WorkloadGenerator bursts(double factor, int meanBurstLength,
+            int meanCalmLength) {
+        assert factor >= 1 : "Violation of: factor >= 1";
+        assert meanBurstLength > 0 : "Violation of: meanBurstLength > 0";
+        assert meanCalmLength > 0 : "Violation of: meanCalmLength > 0";
+        this.burstFactor = factor;
+        this.burstLength = meanBurstLength;
+        this.calmLength = meanCalmLength;
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct players; 0 logs scores without players.
+     *
+     * @param n
+     *            number of players
+     * @return this generator
+     * @requires n >= 0
+     */
+    public WorkloadGenerator players(int n) {
+        assert n >= 0 : "Violation of: n >= 0";
+        this.players = n;
+        return this;
+    }
+
+    /**
+     * Returns the name of game {@code id}.
+     *
+     * @param id
+     *            the game id
+     * @return its hierarchical name
+     */
+    static String gameName(int id) {
+        return "Title" + id / 9 + "/" + MODES[id / 3 % 3] + "/"
+                + REGIONS[id % 3];
+    }
+
+    /**
+     * Generates a trace of {@code ops} operations.
+     *
+     * @param ops
+     *            number of operations
+     * @return the trace
+     * @requires ops >= 0
+     * @ensures generate is the same for the same settings, seed and ops
+     */
+    public WorkloadTrace generate(int ops) {
+        assert ops >= 0 : "Violation of: ops >= 0";
+
+        Random rnd = new Random(this.seed);
+        String[] names = new String[this.games];
+        ScoreDistribution[] scores = new ScoreDistribution[this.games];
+        int[] byRank = new int[this.games];
+        for (int g = 0; g < this.games; g++) {
+            names[g] = gameName(g);
+            scores[g] = new ScoreDistribution(rnd);
+            byRank[g] = g;
+        }
+        for (int r = this.games - 1; r > 0; r--) {
+            int other = rnd.nextInt(r + 1);
+            int tmp = byRank[r];
+            byRank[r] = byRank[other];
+            byRank[other] = tmp;
+        }
+        double[] cdf = new double[this.games];
+        double total = 0;
+        for (int r = 0; r < this.games; r++) {
+            total += Math.pow(r + 1, -this.zipfExponent);
+            cdf[r] = total;
+        }
+
+        WorkloadTrace trace = new WorkloadTrace(names, ops);
+        boolean burst = false;
+        double nanos = 0;
+        for (int i = 0; i < ops; i++) {
+            if (burst) {
+                burst = rnd.nextInt(this.burstLength) != 0;
+            } else if (this.burstFactor > 1) {
+                burst = rnd.nextInt(this.calmLength) == 0;
+            }
+            double currentRate = this.rate;
+            if (burst) {
+                currentRate *= this.burstFactor;
+            }
+            nanos += -Math.log(1 - rnd.nextDouble()) / currentRate * 1e9;
+
+            int rank = Arrays.binarySearch(cdf, rnd.nextDouble() * total);
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            int game = byRank[Math.min(rank, this.games - 1)];
+            if (rnd.nextDouble() < this.readFraction) {
+                trace.add(READS[rnd.nextInt(READS.length)], game, 0, -1,
+                        (long) nanos);
+            } else {
+                int player = -1;
+                if (this.players > 0) {
+                    player = rnd.nextInt(this.players);
+                }
+                trace.add(Operation.LOG, game, scores[game].sample(rnd),
+                        player, (long) nanos);
+            }
+        }
+        return trace;
+    }
+}
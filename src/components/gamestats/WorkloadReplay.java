@@ -0,0 +1,365 @@
+package components.gamestats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import components.gamestats.WorkloadTrace.Operation;
+
+/**
+ * Plays a {@link WorkloadTrace} against any {@link GameStats} and measures
+ * throughput, latency and heap usage.
+ * <p>
+ * A replay is either <i>unpaced</i>, issuing each operation as soon as the
+ * previous one returns, which measures peak throughput, or <i>paced</i>,
+ * issuing each operation at its arrival time in the trace. In a paced replay
+ * an operation's latency runs from its arrival time, not from when it was
+ * issued, so time spent queued behind a slow operation counts against the
+ * operations that waited; otherwise a stall would hide the very latencies it
+ * causes.
+ * </p>
+ * <p>
+ * Heap usage is sampled around the replay: the heap retained is the growth in
+ * used heap between full collections before and after, i.e. roughly the
+ * memory the statistics took on. The peak adds up the peak usage of each of
+ * the JVM's heap pools during the replay, an upper bound on the true peak.
+ * </p>
+ */
+public final class WorkloadReplay {
+
+    /**
+     * Outcome of a replay.
+     */
+    public static final class Result {
+
+        /**
+         * Wall-clock time of the replay.
+         */
+        private final long nanos;
+
+        /**
+         * Latencies of every operation, sorted.
+         */
+        private final long[] all;
+
+        /**
+         * Latencies of each operation, sorted.
+         */
+        private final Map<Operation, long[]> byOperation;
+
+        /**
+         * Growth in used heap across the replay.
+         */
+        private final long retainedHeap;
+
+        /**
+         * Sum of the peak usage of each heap pool during the replay.
+         */
+        private final long peakHeap;
+
+        /**
+         * Hash of every value the reads returned.
+         */
+        private final long checksum;
+
+        /**
+         * Creates a result.
+         *
+         * @param nanos
+         *            elapsed time
+         * @param all
+         *            sorted latencies of every operation
+         * @param byOperation
+         *            sorted latencies of each operation
+         * @param retainedHeap
+         *            growth in used heap
+         * @param peakHeap
+         *            peak used heap
+         * @param checksum
+         *            hash of the read results
+         */
+        private Result(long nanos, long[] all,
+                Map<Operation, long[]> byOperation, long retainedHeap,
+                long peakHeap, long checksum) {
+            this.nanos = nanos;
+            this.all = all;
+            this.byOperation = byOperation;
+            this.retainedHeap = retainedHeap;
+            this.peakHeap = peakHeap;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Returns the number of operations replayed.
+         *
+         * @return the operation count
+         */
+        public int operations() {
+            return this.all.length;
+        }
+
+        /**
+         * Returns the number of operations of kind {@code op} replayed.
+         *
+         * @param op
+         *            the operation
+         * @return its count
+         */
+        public int operations(Operation op) {
+            return this.byOperation.get(op).length;
+        }
+
+        /**
+         * Returns the wall-clock time of the replay in nanoseconds.
+         *
+         * @return the elapsed time
+         */
+        public long nanos() {
+            return this.nanos;
+        }
+
+        /**
+         * Returns the replay rate in operations per second.
+         *
+         * @return operations per second
+         */
+        public double throughput() {
+            return this.all.length * 1e9 / Math.max(1, this.nanos);
+        }
+
+        /**
+         * Returns a latency percentile over all operations.
+         *
+         * @param p
+         *            the percentile, e.g. 99.9
+         * @return the latency in nanoseconds, or 0 if nothing was replayed
+         * @requires 0 < p <= 100
+         */
+        public long latency(double p) {
+            return percentile(this.all, p);
+        }
+
+        /**
+         * Returns a latency percentile over the operations of kind
+         * {@code op}.
+         *
+         * @param op
+         *            the operation
+         * @param p
+         *            the percentile, e.g. 99.9
+         * @return the latency in nanoseconds, or 0 if there were none
+         * @requires 0 < p <= 100
+         */
+        public long latency(Operation op, double p) {
+            return percentile(this.byOperation.get(op), p);
+        }
+
+        /**
+         * Returns how much the used heap grew across the replay, measured
+         * between full collections.
+         *
+         * @return the growth in bytes; may be negative if garbage from before
+         *         the replay was collected
+         */
+        public long retainedHeapBytes() {
+            return this.retainedHeap;
+        }
+
+        /**
+         * Returns the peak used heap during the replay, as the sum of the
+         * peak usage of each heap pool.
+         *
+         * @return the peak in bytes
+         */
+        public long peakHeapBytes() {
+            return this.peakHeap;
+        }
+
+        /**
+         * Returns a hash of every value the reads returned. Replaying a trace
+         * against implementations that agree gives the same checksum.
+         *
+         * @return the checksum
+         */
+        public long checksum() {
+            return this.checksum;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d ops in %.3f s, %.0f ops/s, p50 %.1f us, p99 %.1f us,"
+                            + " p99.9 %.1f us, max %.1f us, heap retained"
+                            + " %.1f MB, peak %.1f MB, checksum %016x",
+                    this.all.length, this.nanos / 1e9, this.throughput(),
+                    this.latency(50) / 1e3, this.latency(99) / 1e3,
+                    this.latency(99.9) / 1e3, this.latency(100) / 1e3,
+                    this.retainedHeap / 1e6, this.peakHeap / 1e6,
+                    this.checksum);
+        }
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private WorkloadReplay() {
+    }
+
+    /**
+     * Returns the nearest-rank percentile of sorted values.
+     *
+     * @param sorted
+     *            values in ascending order
+     * @param p
+     *            the percentile
+     * @return the value, or 0 if there are none
+     */
+    private static long percentile(long[] sorted, double p) {
+        assert 0 < p && p <= 100 : "Violation of: 0 < p <= 100";
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Returns the used heap after a full collection.
+     *
+     * @param memory
+     *            the memory bean
+     * @return used heap in bytes
+     */
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Replays {@code trace} against {@code gs}.
+     *
+     * @param trace
+     *            the operations to perform
+     * @param gs
+     *            the statistics to perform them on
+     * @param paced
+     *            whether to issue operations at their arrival times rather
+     *            than back to back
+     * @return throughput, latencies and heap usage of the replay
+     * @requires trace != null and gs != null
+     * @ensures gs = #gs with every LOG of trace logged in order
+     */
+    public static Result run(WorkloadTrace trace, GameStats gs,
+            boolean paced) {
+        assert trace != null : "Violation of: trace is not null";
+        assert gs != null : "Violation of: gs is not null";
+
+        int n = trace.size();
+        String[] prefixes = new String[trace.gameCount()];
+        for (int g = 0; g < prefixes.length; g++) {
+            String name = trace.gameName(g);
+            prefixes[g] = name.substring(0, name.indexOf('/') + 1);
+        }
+        int playerCount = 0;
+        for (int i = 0; i < n; i++) {
+            playerCount = Math.max(playerCount, trace.player(i) + 1);
+        }
+        String[] players = new String[playerCount];
+        for (int p = 0; p < playerCount; p++) {
+            players[p] = "player" + p;
+        }
+        long[] latencies = new long[n];
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory
+                .getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        long heapBefore = usedHeapAfterGc(memory);
+        for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+        }
+
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            long issued;
+            if (paced) {
+                issued = start + trace.arrivalNanos(i);
+                while (System.nanoTime() < issued) {
+                    Thread.onSpinWait();
+                }
+            } else {
+                issued = System.nanoTime();
+            }
+            String game = trace.gameName(trace.gameId(i));
+            long value;
+            Operation op = trace.operation(i);
+            if (op == Operation.LOG) {
+                int player = trace.player(i);
+                if (player < 0) {
+                    gs.logGame(game, trace.score(i));
+                } else {
+                    gs.logGame(game, trace.score(i), players[player]);
+                }
+                value = 0;
+            } else if (op == Operation.BEST_SCORE) {
+                value = gs.getBestScore(game);
+            } else if (op == Operation.AVERAGE_SCORE) {
+                value = Double.doubleToLongBits(gs.getAverageScore(game));
+            } else if (op == Operation.TOTAL_PLAYED) {
+                value = gs.getTotalGamesPlayed(game);
+            } else if (op == Operation.PREFIX_AVERAGE) {
+                value = Double.doubleToLongBits(gs.getAverageScoreWithPrefix(
+                        prefixes[trace.gameId(i)]));
+            } else {
+                value = gs.getUniquePlayers(game);
+            }
+            latencies[i] = System.nanoTime() - issued;
+            checksum = checksum * 31 + value;
+        }
+        long nanos = System.nanoTime() - start;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        long retainedHeap = usedHeapAfterGc(memory) - heapBefore;
+        // keep what was allocated before heapBefore, and gs itself, from
+        // being collected before the measurement
+        Reference.reachabilityFence(gs);
+        Reference.reachabilityFence(players);
+        Reference.reachabilityFence(prefixes);
+
+        Map<Operation, long[]> byOperation = new EnumMap<>(Operation.class);
+        int[] counts = new int[Operation.values().length];
+        for (int i = 0; i < n; i++) {
+            counts[trace.operation(i).ordinal()]++;
+        }
+        for (Operation op : Operation.values()) {
+            byOperation.put(op, new long[counts[op.ordinal()]]);
+            counts[op.ordinal()] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            Operation op = trace.operation(i);
+            byOperation.get(op)[counts[op.ordinal()]++] = latencies[i];
+        }
+        for (long[] values : byOperation.values()) {
+            Arrays.sort(values);
+        }
+        Arrays.sort(latencies);
+        return new Result(nanos, latencies, byOperation, retainedHeap,
+                peakHeap, checksum);
+    }
+}
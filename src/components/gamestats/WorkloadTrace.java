@@ -0,0 +1,405 @@
+package components.gamestats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recorded sequence of {@link GameStats} operations, each with the time at
+ * which it arrives, for {@link WorkloadReplay} to play back.
+ * <p>
+ * Games are stored as indices into a table of game names, and players as
+ * non-negative numbers (-1 when a play has no player), so the same trace can
+ * be replayed any number of times with identical calls. A trace comes from
+ * {@link WorkloadGenerator#generate(int)} or from a file written by
+ * {@link #write(Path)}.
+ * </p>
+ */
+public final class WorkloadTrace {
+
+    /**
+     * The operations a trace can contain.
+     */
+    public enum Operation {
+        /**
+         * {@code logGame(game, score)}, or {@code logGame(game, score,
+         * player)} when the operation has a player.
+         */
+        LOG,
+        /**
+         * {@code getBestScore(game)}.
+         */
+        BEST_SCORE,
+        /**
+         * {@code getAverageScore(game)}.
+         */
+        AVERAGE_SCORE,
+        /**
+         * {@code getTotalGamesPlayed(game)}.
+         */
+        TOTAL_PLAYED,
+        /**
+         * {@code getAverageScoreWithPrefix(p)}, where {@code p} is the game
+         * name up to and including its first '/'.
+         */
+        PREFIX_AVERAGE,
+        /**
+         * {@code getUniquePlayers(game)}.
+         */
+        UNIQUE_PLAYERS;
+
+        /**
+         * Cached result of {@code values()}.
+         */
+        private static final Operation[] VALUES = values();
+    }
+
+    /**
+     * First four bytes of a trace file: "GSWT".
+     */
+    private static final int MAGIC = 0x47535754;
+
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Bytes per entry in a trace file: op, game, score, player and arrival.
+     */
+    private static final int ENTRY_BYTES = 1 + 3 * Integer.BYTES + Long.BYTES;
+
+    /**
+     * Game names, indexed by game id.
+     */
+    private final String[] games;
+
+    /**
+     * Operation ordinal of each entry.
+     */
+    private byte[] ops;
+
+    /**
+     * Game id of each entry.
+     */
+    private int[] gameIds;
+
+    /**
+     * Score of each {@code LOG} entry, 0 otherwise.
+     */
+    private int[] scores;
+
+    /**
+     * Player of each {@code LOG} entry, -1 if none.
+     */
+    private int[] players;
+
+    /**
+     * Arrival time of each entry, in nanoseconds from the start of the trace.
+     */
+    private long[] arrivals;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Creates an empty trace over the given games.
+     *
+     * @param games
+     *            game names, indexed by game id
+     * @param capacity
+     *            expected number of entries
+     */
+    WorkloadTrace(String[] games, int capacity) {
+        this.games = games;
+        this.ops = new byte[capacity];
+        this.gameIds = new int[capacity];
+        this.scores = new int[capacity];
+        this.players = new int[capacity];
+        this.arrivals = new long[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Appends an entry.
+     *
+     * @param op
+     *            the operation
+     * @param game
+     *            the game id
+     * @param score
+     *            the score, for {@code LOG}
+     * @param player
+     *            the player, for {@code LOG}, or -1
+     * @param arrivalNanos
+     *            arrival time, no earlier than the previous entry's
+     */
+    void add(Operation op, int game, int score, int player,
+            long arrivalNanos) {
+        assert 0 <= game
+                && game < this.games.length : "Violation of: game is valid";
+        assert this.size == 0 || arrivalNanos >= this.arrivals[this.size - 1]
+                : "Violation of: arrivals are in order";
+        if (this.size == this.ops.length) {
+            int capacity = Math.max(16, this.size * 2);
+            this.ops = Arrays.copyOf(this.ops, capacity);
+            this.gameIds = Arrays.copyOf(this.gameIds, capacity);
+            this.scores = Arrays.copyOf(this.scores, capacity);
+            this.players = Arrays.copyOf(this.players, capacity);
+            this.arrivals = Arrays.copyOf(this.arrivals, capacity);
+        }
+        this.ops[this.size] = (byte) op.ordinal();
+        this.gameIds[this.size] = game;
+        this.scores[this.size] = score;
+        this.players[this.size] = player;
+        this.arrivals[this.size] = arrivalNanos;
+        this.size++;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the size of the trace
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of distinct games the trace may refer to.
+     *
+     * @return the size of the game table
+     */
+    public int gameCount() {
+        return this.games.length;
+    }
+
+    /**
+     * Returns the name of a game.
+     *
+     * @param id
+     *            the game id
+     * @return its name
+     * @requires 0 <= id < gameCount()
+     */
+    public String gameName(int id) {
+        return this.games[id];
+    }
+
+    /**
+     * Returns the operation of entry {@code i}.
+     *
+     * @param i
+     *            the entry
+     * @return its operation
+     * @requires 0 <= i < size()
+     */
+    public Operation operation(int i) {
+        return Operation.VALUES[this.ops[i]];
+    }
+
+    /**
+     * Returns the game id of entry {@code i}.
+     *
+     * @param i
+     *            the entry
+     * @return its game id
+     * @requires 0 <= i < size()
+     */
+    public int gameId(int i) {
+        return this.gameIds[i];
+    }
+
+    /**
+     * Returns the score of entry {@code i}.
+     *
+     * @param i
+     *            the entry
+     * @return its score, or 0 if it is not a {@code LOG}
+     * @requires 0 <= i < size()
+     */
+    public int score(int i) {
+        return this.scores[i];
+    }
+
+    /**
+     * Returns the player of entry {@code i}.
+     *
+     * @param i
+     *            the entry
+     * @return its player, or -1 if it has none
+     * @requires 0 <= i < size()
+     */
+    public int player(int i) {
+        return this.players[i];
+    }
+
+    /**
+     * Returns the arrival time of entry {@code i}.
+     *
+     * @param i
+     *            the entry
+     * @return nanoseconds from the start of the trace
+     * @requires 0 <= i < size()
+     */
+    public long arrivalNanos(int i) {
+        return this.arrivals[i];
+    }
+
+    /**
+     * Returns the number of entries with operation {@code op}.
+     *
+     * @param op
+     *            the operation
+     * @return how many entries perform it
+     */
+    public int count(Operation op) {
+        int n = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (this.ops[i] == op.ordinal()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes the trace to {@code file}, replacing its contents.
+     *
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.games.length);
+            for (String g : this.games) {
+                out.writeUTF(g);
+            }
+            out.writeInt(this.size);
+            for (int i = 0; i < this.size; i++) {
+                out.writeByte(this.ops[i]);
+                out.writeInt(this.gameIds[i]);
+                out.writeInt(this.scores[i]);
+                out.writeInt(this.players[i]);
+                out.writeLong(this.arrivals[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a trace written by {@link #write(Path)}.
+     *
+     * @param file
+     *            the file to read
+     * @return the trace
+     * @throws IOException
+     *             if the file cannot be read or is not a valid trace
+     */
+    public static WorkloadTrace read(Path file) throws IOException {
+        // counts are checked against the file size before anything is
+        // allocated, so a damaged header cannot ask for gigabytes
+        long length = Files.size(file);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a workload trace");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(
+                        "unsupported trace version " + version + " in " + file);
+            }
+            int names = in.readInt();
+            // every name takes at least its two-byte length
+            if (names < 0 || names > length / 2) {
+                throw new IOException(
+                        "corrupt name table size " + names + " in " + file);
+            }
+            String[] games = new String[names];
+            for (int g = 0; g < games.length; g++) {
+                games[g] = in.readUTF();
+            }
+            int size = in.readInt();
+            if (size < 0 || size > length / ENTRY_BYTES) {
+                throw new IOException(
+                        "corrupt entry count " + size + " in " + file);
+            }
+            WorkloadTrace trace = new WorkloadTrace(games, size);
+            long arrival = 0;
+            for (int i = 0; i < size; i++) {
+                int op = in.readByte();
+                int game = in.readInt();
+                int score = in.readInt();
+                int player = in.readInt();
+                long next = in.readLong();
+                if (op < 0 || op >= Operation.VALUES.length || game < 0
+                        || game >= games.length || player < -1
+                        || next < arrival) {
+                    throw new IOException(
+                            "corrupt entry " + i + " in " + file);
+                }
+                arrival = next;
+                trace.add(Operation.VALUES[op], game, score, player, arrival);
+            }
+            return trace;
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof WorkloadTrace)) {
+            return false;
+        }
+        WorkloadTrace other = (WorkloadTrace) obj;
+        int n = this.size;
+        return n == other.size && Arrays.equals(this.games, other.games)
+                && Arrays.equals(this.ops, 0, n, other.ops, 0, n)
+                && Arrays.equals(this.gameIds, 0, n, other.gameIds, 0, n)
+                && Arrays.equals(this.scores, 0, n, other.scores, 0, n)
+                && Arrays.equals(this.players, 0, n, other.players, 0, n)
+                && Arrays.equals(this.arrivals, 0, n, other.arrivals, 0, n);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Arrays.hashCode(this.games);
+        for (int i = 0; i < this.size; i++) {
+            h = 31 * h + this.gameIds[i];
+            h = 31 * h + this.scores[i];
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.size).append(" operations over ")
+                .append(this.games.length).append(" games");
+        if (this.size > 0) {
+            sb.append(String.format(" in %.3f s",
+                    this.arrivals[this.size - 1] / 1e9));
+        }
+        for (Operation op : Operation.VALUES) {
+            sb.append(", ").append(op).append(' ').append(this.count(op));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,946 @@
+package components.gamestats;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk log and checkpoint files backing {@link DurableGameStats}.
+ * <p>
+ * The log is a series of numbered segment files; records are appended to the
+ * newest. Log segments and the checkpoint file are sequences of self-checking
+ * records:
+ *
+ * <pre>
+ * int length | long lsn | byte type | payload | int crc32(lsn..payload)
+ * </pre>
+ *
+ * A {@code LOG} payload is {@code string game | int score}, where a string is
+ * {@code int byteLength | UTF-8 bytes}; a {@code PLAYER} payload is
+ * {@code string game | int score | string player}; a {@code SKETCH} payload is
+ * {@code string game | byte precision | int count | entries}, where a sparse
+ * sketch writes its {@code count} non-zero registers as packed {@code int}s
+ * and a dense one writes {@code -1} and then every register as a byte; a
+ * {@code CLEAR} payload is empty. The checkpoint file starts with a
+ * {@code CHECKPOINT} record whose LSN is the last log record it covers,
+ * followed by one {@code LOG} record per stored score and one {@code SKETCH}
+ * record per unique-player sketch. Log records with an LSN at or below that
+ * value are skipped on recovery, so a crash between writing a checkpoint and
+ * deleting the segments it covers never replays a score twice.
+ * </p>
+ * <p>
+ * A checkpoint is taken in two steps. {@link #rotate()} starts a new segment,
+ * which is all that has to happen while writers are held off. Then
+ * {@link #compact(long, long)} rewrites the previous checkpoint plus the
+ * segments before the new one into a new checkpoint, reading only files, so
+ * it can run alongside further appends and never touches the statistics
+ * themselves. Once the new checkpoint is renamed into place the segments it
+ * covers are deleted.
+ * </p>
+ * <p>
+ * Recovery stops at the first record that is short or fails its checksum
+ * (a torn write at the moment of a crash) and truncates the log there. So that
+ * an intact record is never mistaken for a torn one, records whose body would
+ * exceed {@code MAX_BODY_BYTES} are refused when they are encoded.
+ * </p>
+ * <p>
+ * A lock file in the directory is locked while the log is open, so only one
+ * instance, in this process or another, can use a directory at a time. The
+ * directory itself is forced to disk after a segment is created and after a
+ * checkpoint is renamed into place, so that neither can vanish in a power
+ * failure that later changes survive.
+ * </p>
+ */
+final class WriteAheadLog implements Closeable {
+
+    /**
+     * Record type: one score logged for one game.
+     */
+    static final byte LOG = 1;
+
+    /**
+     * Record type: all statistics cleared.
+     */
+    static final byte CLEAR = 2;
+
+    /**
+     * Record type: checkpoint header.
+     */
+    static final byte CHECKPOINT = 3;
+
+    /**
+     * Record type: one score logged for one game by a known player.
+     */
+    static final byte PLAYER = 4;
+
+    /**
+     * Record type: a unique-player sketch merged into a game.
+     */
+    static final byte SKETCH = 5;
+
+    /**
+     * Prefix of the log segment files inside the directory; a segment is
+     * named {@code LOG_PREFIX + generation + LOG_SUFFIX}.
+     */
+    private static final String LOG_PREFIX = "gamestats.";
+
+    /**
+     * Suffix of the log segment files.
+     */
+    private static final String LOG_SUFFIX = ".wal";
+
+    /**
+     * Name of the lock file inside the directory.
+     */
+    private static final String LOCK_FILE = "gamestats.lock";
+
+    /**
+     * Name of the checkpoint file inside the directory.
+     */
+    private static final String CHECKPOINT_FILE = "gamestats.ckpt";
+
+    /**
+     * Bytes of framing around a record body: length prefix and checksum.
+     */
+    private static final int FRAME_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * Bytes of the fixed part of a record body: lsn and type.
+     */
+    private static final int HEADER_BYTES = Long.BYTES + 1;
+
+    /**
+     * Upper bound on a record body, used to reject garbage lengths.
+     */
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    /**
+     * Longest game or player name, in UTF-8 bytes, that may be logged; small
+     * enough that every record fits in {@code MAX_BODY_BYTES}.
+     */
+    static final int MAX_NAME_BYTES = (MAX_BODY_BYTES - (1 << 16) - 64) / 2;
+
+    /**
+     * Directory holding the log and checkpoint files.
+     */
+    private final Path dir;
+
+    /**
+     * Open channel on the newest log segment, positioned at its end.
+     */
+    private FileChannel log;
+
+    /**
+     * Generation of the newest log segment.
+     */
+    private long generation;
+
+    /**
+     * Open channel on the lock file.
+     */
+    private final FileChannel lockFile;
+
+    /**
+     * Exclusive lock on the lock file, held while the log is open.
+     */
+    private final FileLock lock;
+
+    /**
+     * Opens (creating if necessary) the log in {@code dir}.
+     *
+     * @param dir
+     *            the directory holding the log files
+     * @throws IOException
+     *             if the directory or log files cannot be opened, or another
+     *             instance already has the log open
+     */
+    WriteAheadLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.lockFile = FileChannel.open(dir.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock held;
+        try {
+            held = this.lockFile.tryLock();
+        } catch (OverlappingFileLockException e) {
+            held = null;
+        }
+        if (held == null) {
+            this.lockFile.close();
+            throw new IOException(dir + " is already open");
+        }
+        this.lock = held;
+        try {
+            List<Long> generations = segments(dir);
+            if (generations.isEmpty()) {
+                this.generation = 1;
+                this.log = FileChannel.open(this.segment(1),
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+                forceDirectory(dir);
+            } else {
+                this.generation = generations.get(generations.size() - 1);
+                this.log = FileChannel.open(this.segment(this.generation),
+                        StandardOpenOption.WRITE);
+            }
+        } catch (IOException e) {
+            this.lock.release();
+            this.lockFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the path of the log segment of {@code gen}.
+     *
+     * @param gen
+     *            the generation
+     * @return the segment's path
+     */
+    private Path segment(long gen) {
+        return this.dir.resolve(LOG_PREFIX + gen + LOG_SUFFIX);
+    }
+
+    /**
+     * Returns the generations of the log segments in {@code dir}, in
+     * ascending order.
+     *
+     * @param dir
+     *            the directory
+     * @return the generations
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    private static List<Long> segments(Path dir) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+                    String gen = name.substring(LOG_PREFIX.length(),
+                            name.length() - LOG_SUFFIX.length());
+                    if (!gen.isEmpty() && gen.chars()
+                            .allMatch(c -> '0' <= c && c <= '9')) {
+                        result.add(Long.parseLong(gen));
+                    }
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Forces the entries of {@code dir} (file creations and renames) to
+     * stable storage.
+     *
+     * @param dir
+     *            the directory
+     * @throws IOException
+     *             if the directory cannot be forced
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms (Windows) cannot open a directory; there the
+            // entries are made durable together with the files
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Deletes the log and checkpoint files in {@code dir}, and {@code dir}
+     * itself if that leaves it empty.
+     *
+     * @param dir
+     *            the directory holding the log files, which must not be open
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    static void delete(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        for (long gen : segments(dir)) {
+            Files.deleteIfExists(dir.resolve(LOG_PREFIX + gen + LOG_SUFFIX));
+        }
+        Files.deleteIfExists(dir.resolve(LOCK_FILE));
+        Files.deleteIfExists(dir.resolve(CHECKPOINT_FILE));
+        Files.deleteIfExists(dir.resolve(CHECKPOINT_FILE + ".tmp"));
+        try (Stream<Path> rest = Files.list(dir)) {
+            if (rest.findAny().isEmpty()) {
+                Files.delete(dir);
+            }
+        } catch (NoSuchFileException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Receiver of the records read back from the files.
+     */
+    private interface Sink {
+
+        /**
+         * Receives a {@code LOG} or {@code PLAYER} record.
+         *
+         * @param game
+         *            the game
+         * @param score
+         *            the score
+         * @param player
+         *            the player, or {@code null}
+         * @throws IOException
+         *             if the record cannot be passed on
+         */
+        void score(String game, int score, String player) throws IOException;
+
+        /**
+         * Receives a {@code SKETCH} record.
+         *
+         * @param game
+         *            the game
+         * @param sketch
+         *            the sketch
+         * @throws IOException
+         *             if the record cannot be passed on
+         */
+        void sketch(String game, HyperLogLog sketch) throws IOException;
+
+        /**
+         * Receives a {@code CLEAR} record.
+         *
+         * @throws IOException
+         *             if the record cannot be passed on
+         */
+        void clear() throws IOException;
+    }
+
+    /**
+     * Replays the checkpoint and then every log segment into {@code replay},
+     * truncating any torn record at the end of the newest segment.
+     *
+     * @param replay
+     *            statistics to apply the recovered records to
+     * @return the highest LSN recovered, or 0 if there is none
+     * @throws IOException
+     *             if the files cannot be read
+     */
+    long recover(GameStats replay) throws IOException {
+        Sink sink = new Sink() {
+            @Override
+            public void score(String game, int score, String player) {
+                if (player == null) {
+                    replay.logGame(game, score);
+                } else {
+                    replay.logGame(game, score, player);
+                }
+            }
+
+            @Override
+            public void sketch(String game, HyperLogLog sketch) {
+                replay.mergePlayerSketch(game, sketch);
+            }
+
+            @Override
+            public void clear() {
+                replay.clear();
+            }
+        };
+        long covered = this.readCheckpoint(sink);
+        long maxLsn = covered;
+        for (long gen : segments(this.dir)) {
+            long[] end;
+            try (InputStream in = Files.newInputStream(this.segment(gen))) {
+                end = readRecords(in, covered, sink);
+            }
+            maxLsn = Math.max(maxLsn, end[0]);
+            if (gen == this.generation) {
+                this.log.truncate(end[1]);
+                this.log.position(end[1]);
+            }
+        }
+        return maxLsn;
+    }
+
+    /**
+     * Reads the checkpoint, if there is one, into {@code sink}.
+     *
+     * @param sink
+     *            receiver of the records
+     * @return the last LSN the checkpoint covers, or 0 if there is none
+     * @throws IOException
+     *             if the checkpoint cannot be read
+     */
+    private long readCheckpoint(Sink sink) throws IOException {
+        Path ckpt = this.dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(ckpt)) {
+            return 0;
+        }
+        try (InputStream in = Files.newInputStream(ckpt)) {
+            return readRecords(in, 0, sink)[0];
+        }
+    }
+
+    /**
+     * Reads records from {@code in} until the end of the stream or the first
+     * damaged record, passing those with an LSN above {@code skipThrough} to
+     * {@code sink}.
+     *
+     * @param in
+     *            the stream to read
+     * @param skipThrough
+     *            records with an LSN at or below this value are skipped
+     * @param sink
+     *            receiver of the records
+     * @return the highest LSN seen and the byte offset just past the last
+     *         intact record
+     * @throws IOException
+     *             if the stream cannot be read
+     */
+    private static long[] readRecords(InputStream in, long skipThrough,
+            Sink sink) throws IOException {
+        DataInputStream data = new DataInputStream(
+                new BufferedInputStream(in));
+        CRC32 crc = new CRC32();
+        byte[] body = new byte[64];
+        long maxLsn = 0;
+        long offset = 0;
+        while (true) {
+            int length;
+            try {
+                length = data.readInt();
+                if (length < HEADER_BYTES || length > MAX_BODY_BYTES) {
+                    break;
+                }
+                if (body.length < length) {
+                    body = new byte[Math.max(length, 2 * body.length)];
+                }
+                data.readFully(body, 0, length);
+                crc.reset();
+                crc.update(body, 0, length);
+                if (data.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            offset += length + FRAME_BYTES;
+
+            ByteBuffer buf = ByteBuffer.wrap(body, 0, length);
+            long lsn = buf.getLong();
+            byte type = buf.get();
+            maxLsn = Math.max(maxLsn, lsn);
+            if (type == CHECKPOINT) {
+                continue;
+            }
+            if (lsn <= skipThrough && lsn != 0) {
+                continue;
+            }
+            if (type == CLEAR) {
+                sink.clear();
+                continue;
+            }
+            String game = readString(buf);
+            if (type == LOG) {
+                sink.score(game, buf.getInt(), null);
+            } else if (type == PLAYER) {
+                int score = buf.getInt();
+                sink.score(game, score, readString(buf));
+            } else if (type == SKETCH) {
+                int precision = buf.get();
+                int count = buf.getInt();
+                if (count < 0) {
+                    byte[] registers = new byte[1 << precision];
+                    buf.get(registers);
+                    sink.sketch(game, new HyperLogLog(precision, registers));
+                } else {
+                    int[] entries = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        entries[i] = buf.getInt();
+                    }
+                    sink.sketch(game, new HyperLogLog(precision, entries));
+                }
+            }
+        }
+        return new long[] { maxLsn, offset };
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string from {@code buf}.
+     *
+     * @param buf
+     *            the buffer, positioned at the string
+     * @return the string
+     */
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(),
+                length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    /**
+     * Throws if a record body of {@code length} bytes is too large for
+     * recovery to accept.
+     *
+     * @param length
+     *            the length of the record body
+     * @throws IllegalArgumentException
+     *             if {@code length > MAX_BODY_BYTES}
+     */
+    private static void checkLength(long length) {
+        if (length > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("Record of " + length
+                    + " bytes exceeds the log limit of " + MAX_BODY_BYTES);
+        }
+    }
+
+    /**
+     * Throws if {@code name} is too long to be logged as a game or player
+     * name.
+     *
+     * @param name
+     *            the name
+     * @throws IllegalArgumentException
+     *             if its UTF-8 encoding exceeds {@code MAX_NAME_BYTES}
+     */
+    static void checkName(String name) {
+        // UTF-8 needs at most 3 bytes per char, so short names skip encoding
+        if (name.length() * 3L > MAX_NAME_BYTES && name
+                .getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Name longer than "
+                    + MAX_NAME_BYTES + " bytes cannot be logged");
+        }
+    }
+
+    /**
+     * Appends a {@code CLEAR} or {@code CHECKPOINT} record to {@code buf},
+     * growing it if necessary.
+     *
+     * @param buf
+     *            the buffer to append to, in write mode
+     * @param lsn
+     *            the record's log sequence number
+     * @param type
+     *            the record type
+     * @return the buffer holding the appended record ({@code buf} or a larger
+     *         copy of it)
+     */
+    static ByteBuffer encode(ByteBuffer buf, long lsn, byte type) {
+        ByteBuffer out = ensureRemaining(buf, HEADER_BYTES + FRAME_BYTES);
+        int start = begin(out, HEADER_BYTES, lsn, type);
+        return finish(out, start);
+    }
+
+    /**
+     * Appends a {@code LOG} record, or a {@code PLAYER} record if
+     * {@code player} is not {@code null}, to {@code buf}, growing it if
+     * necessary.
+     *
+     * @param buf
+     *            the buffer to append to, in write mode
+     * @param lsn
+     *            the record's log sequence number
+     * @param game
+     *            the game name
+     * @param score
+     *            the score
+     * @param player
+     *            the player, or {@code null}
+     * @return the buffer holding the appended record ({@code buf} or a larger
+     *         copy of it)
+     * @throws IllegalArgumentException
+     *             if the record would exceed {@code MAX_BODY_BYTES}; nothing
+     *             is appended
+     */
+    static ByteBuffer encode(ByteBuffer buf, long lsn, String game, int score,
+            String player) {
+        byte[] name = game.getBytes(StandardCharsets.UTF_8);
+        byte[] who = null;
+        int length = HEADER_BYTES + Integer.BYTES + name.length
+                + Integer.BYTES;
+        if (player != null) {
+            who = player.getBytes(StandardCharsets.UTF_8);
+            length += Integer.BYTES + who.length;
+        }
+        checkLength(length);
+        ByteBuffer out = ensureRemaining(buf, length + FRAME_BYTES);
+        int start = begin(out, length, lsn, player == null ? LOG : PLAYER);
+        out.putInt(name.length).put(name).putInt(score);
+        if (who != null) {
+            out.putInt(who.length).put(who);
+        }
+        return finish(out, start);
+    }
+
+    /**
+     * Appends a {@code SKETCH} record to {@code buf}, growing it if necessary.
+     *
+     * @param buf
+     *            the buffer to append to, in write mode
+     * @param lsn
+     *            the record's log sequence number
+     * @param game
+     *            the game name
+     * @param sketch
+     *            the sketch merged into the game
+     * @return the buffer holding the appended record ({@code buf} or a larger
+     *         copy of it)
+     * @throws IllegalArgumentException
+     *             if the record would exceed {@code MAX_BODY_BYTES}; nothing
+     *             is appended
+     */
+    static ByteBuffer encode(ByteBuffer buf, long lsn, String game,
+            HyperLogLog sketch) {
+        byte[] name = game.getBytes(StandardCharsets.UTF_8);
+        int[] entries = null;
+        byte[] registers = null;
+        int length = HEADER_BYTES + Integer.BYTES + name.length + 1
+                + Integer.BYTES;
+        if (sketch.isSparse()) {
+            entries = sketch.entries();
+            length += entries.length * Integer.BYTES;
+        } else {
+            registers = sketch.registers();
+            length += registers.length;
+        }
+        checkLength(length);
+        ByteBuffer out = ensureRemaining(buf, length + FRAME_BYTES);
+        int start = begin(out, length, lsn, SKETCH);
+        out.putInt(name.length).put(name).put((byte) sketch.precision());
+        if (entries != null) {
+            out.putInt(entries.length);
+            for (int e : entries) {
+                out.putInt(e);
+            }
+        } else {
+            out.putInt(-1).put(registers);
+        }
+        return finish(out, start);
+    }
+
+    /**
+     * Writes the length prefix and fixed header of a record.
+     *
+     * @param out
+     *            the buffer, with room for the whole record
+     * @param length
+     *            length of the record body
+     * @param lsn
+     *            the record's log sequence number
+     * @param type
+     *            the record type
+     * @return the position where the body starts
+     */
+    private static int begin(ByteBuffer out, int length, long lsn,
+            byte type) {
+        out.putInt(length);
+        int start = out.position();
+        out.putLong(lsn);
+        out.put(type);
+        return start;
+    }
+
+    /**
+     * Writes the checksum of the record body starting at {@code start}.
+     *
+     * @param out
+     *            the buffer, positioned just past the body
+     * @param start
+     *            the position where the body starts
+     * @return {@code out}
+     */
+    private static ByteBuffer finish(ByteBuffer out, int start) {
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), start, out.position() - start);
+        out.putInt((int) crc.getValue());
+        return out;
+    }
+
+    /**
+     * Returns a buffer with at least {@code needed} bytes remaining that holds
+     * the contents of {@code buf}.
+     *
+     * @param buf
+     *            the buffer, in write mode
+     * @param needed
+     *            the number of bytes required
+     * @return {@code buf}, or a larger copy of it
+     */
+    private static ByteBuffer ensureRemaining(ByteBuffer buf, int needed) {
+        if (buf.remaining() >= needed) {
+            return buf;
+        }
+        int capacity = Math.max(2 * buf.capacity(), buf.position() + needed);
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    /**
+     * Writes the records in {@code batch} to the end of the log and forces
+     * them to stable storage.
+     *
+     * @param batch
+     *            the encoded records, in write mode; cleared on return
+     * @throws IOException
+     *             if the write or the force fails
+     */
+    void commit(ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            this.log.write(batch);
+        }
+        this.log.force(false);
+        batch.clear();
+    }
+
+    /**
+     * Starts a new log segment; later commits go to it. The caller must not
+     * commit concurrently.
+     *
+     * @return the generation of the segment just finished, which a
+     *         checkpoint can now cover
+     * @throws IOException
+     *             if the new segment cannot be created
+     */
+    long rotate() throws IOException {
+        long finished = this.generation;
+        FileChannel next = FileChannel.open(this.segment(finished + 1),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            forceDirectory(this.dir);
+        } catch (IOException e) {
+            next.close();
+            Files.deleteIfExists(this.segment(finished + 1));
+            throw e;
+        }
+        this.log.close();
+        this.log = next;
+        this.generation = finished + 1;
+        return finished;
+    }
+
+    /**
+     * Writes a new checkpoint from the current one and every log segment up
+     * to and including generation {@code through}, then deletes those
+     * segments. Reads only the files, so it may run while commits go to a
+     * later segment; it must not run concurrently with itself.
+     *
+     * @param through
+     *            the last generation to fold into the checkpoint, as returned
+     *            by {@link #rotate()}
+     * @param lsn
+     *            the last LSN in those segments
+     * @throws IOException
+     *             if the checkpoint cannot be written
+     */
+    void compact(long through, long lsn) throws IOException {
+        Path tmp = this.dir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckpointWriter writer = new CheckpointWriter(out, lsn);
+            long covered = this.readCheckpoint(writer);
+            for (long gen : segments(this.dir)) {
+                if (gen <= through) {
+                    try (InputStream in = Files
+                            .newInputStream(this.segment(gen))) {
+                        readRecords(in, covered, writer);
+                    }
+                }
+            }
+            writer.finish();
+            out.force(true);
+        }
+        Files.move(tmp, this.dir.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        // the rename must be durable before the segments it replaces go
+        forceDirectory(this.dir);
+        for (long gen : segments(this.dir)) {
+            if (gen <= through) {
+                Files.delete(this.segment(gen));
+            }
+        }
+    }
+
+    /**
+     * Writes the records it receives as a checkpoint: every score as a
+     * {@code LOG} record, and the players of each game folded into one
+     * {@code SKETCH} record at the end. A {@code CLEAR} discards everything
+     * received before it.
+     */
+    private static final class CheckpointWriter implements Sink {
+
+        /**
+         * Destination channel.
+         */
+        private final FileChannel out;
+
+        /**
+         * Size of the checkpoint header at the start of {@code out}.
+         */
+        private final long headerBytes;
+
+        /**
+         * Records not yet written.
+         */
+        private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+
+        /**
+         * Players of each game seen so far.
+         */
+        private final Map<String, HyperLogLog> players = new HashMap<>();
+
+        /**
+         * Starts a checkpoint covering up to {@code lsn} in {@code out}.
+         *
+         * @param out
+         *            the destination channel, empty
+         * @param lsn
+         *            the last LSN the checkpoint covers
+         * @throws IOException
+         *             if the header cannot be written
+         */
+        CheckpointWriter(FileChannel out, long lsn) throws IOException {
+            this.out = out;
+            this.buf = encode(this.buf, lsn, CHECKPOINT);
+            this.headerBytes = this.buf.position();
+            writeFully(out, this.buf);
+        }
+
+        /**
+         * Writes out {@code buf} once it holds enough to be worth a write.
+         *
+         * @throws IOException
+         *             if the write fails
+         */
+        private void spill() throws IOException {
+            if (this.buf.position() >= 1 << 16) {
+                writeFully(this.out, this.buf);
+            }
+        }
+
+        /**
+         * Returns the sketch of {@code game}, creating it if necessary.
+         *
+         * @param game
+         *            the game
+         * @return its sketch
+         */
+        private HyperLogLog sketchOf(String game) {
+            HyperLogLog sketch = this.players.get(game);
+            if (sketch == null) {
+                sketch = new HyperLogLog();
+                this.players.put(game, sketch);
+            }
+            return sketch;
+        }
+
+        @Override
+        public void score(String game, int score, String player)
+                throws IOException {
+            this.buf = encode(this.buf, 0, game, score, null);
+            this.spill();
+            if (player != null) {
+                this.sketchOf(game).add(player);
+            }
+        }
+
+        @Override
+        public void sketch(String game, HyperLogLog sketch) {
+            this.sketchOf(game).merge(sketch);
+        }
+
+        @Override
+        public void clear() throws IOException {
+            this.buf.clear();
+            this.players.clear();
+            this.out.truncate(this.headerBytes);
+            this.out.position(this.headerBytes);
+        }
+
+        /**
+         * Writes the sketches and everything still buffered.
+         *
+         * @throws IOException
+         *             if the write fails
+         */
+        void finish() throws IOException {
+            for (Map.Entry<String, HyperLogLog> e : this.players.entrySet()) {
+                if (!e.getValue().isEmpty()) {
+                    this.buf = encode(this.buf, 0, e.getKey(), e.getValue());
+                    this.spill();
+                }
+            }
+            writeFully(this.out, this.buf);
+        }
+    }
+
+    /**
+     * Writes the contents of {@code buf} to {@code out} and clears it.
+     *
+     * @param out
+     *            the destination channel
+     * @param buf
+     *            the buffer, in write mode
+     * @throws IOException
+     *             if the write fails
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+            throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Returns the current size of the newest log segment in bytes.
+     *
+     * @return the segment size
+     * @throws IOException
+     *             if the size cannot be read
+     */
+    long size() throws IOException {
+        return this.log.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.log.close();
+        this.lock.release();
+        this.lockFile.close();
+    }
+
+}
@@ -0,0 +1,401 @@
+package components.gamestats;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DurableGameStatsTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("gamestats-wal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DurableGameStats.delete(this.dir);
+        assertFalse(Files.exists(this.dir));
+    }
+
+    // ---------- recovery ----------
+
+    @Test
+    public void testReopenRestoresScores() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10);
+            gs.logGame("Halo", 30);
+            gs.logGame("Chess", 5);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(2, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(30, gs.getBestScore("Halo"));
+            assertEquals(1, gs.getTotalGamesPlayed("Chess"));
+        }
+    }
+
+    @Test
+    public void testClearIsDurable() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10);
+            gs.clear();
+            gs.logGame("Chess", 5);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(0, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(1, gs.getTotalGamesPlayed("Chess"));
+        }
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            for (int i = 0; i < 100; i++) {
+                gs.logGame("Halo", i);
+            }
+        }
+        // a record cut off part-way through, as left by a crash mid-write
+        Files.write(this.dir.resolve("gamestats.1.wal"),
+                new byte[] { 0, 0, 0, 40, 0, 0, 0 },
+                StandardOpenOption.APPEND);
+
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(100, gs.getTotalGamesPlayed("Halo"));
+            gs.logGame("Halo", 1000);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(101, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(1000, gs.getBestScore("Halo"));
+        }
+    }
+
+    @Test
+    public void testDirectoryCannotBeOpenedTwice() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10);
+            GameStats other = new GameStats1L();
+            other.logGame("Chess", 5);
+            try {
+                new DurableGameStats(other, this.dir).close();
+                fail("opened a log that is already open");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("already open"));
+            }
+            // the failed open left both instances alone
+            assertEquals(1, other.getTotalGamesPlayed("Chess"));
+            gs.logGame("Halo", 20);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(2, gs.getTotalGamesPlayed("Halo"));
+        }
+    }
+
+    @Test
+    public void testOversizedNameIsRefused() throws IOException {
+        String huge = "x".repeat(DurableGameStats.MAX_NAME_BYTES + 1);
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10);
+            try {
+                gs.logGame(huge, 1);
+                fail("logged a name longer than MAX_NAME_BYTES");
+            } catch (IllegalArgumentException e) {
+                assertEquals(0, gs.getTotalGamesPlayed(huge));
+            }
+            gs.logGame("Halo", 20);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(2, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(20, gs.getBestScore("Halo"));
+        }
+    }
+
+    @Test
+    public void testKilledProcessKeepsAcknowledgedScores()
+            throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin"
+                        + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                DurableGameStatsTest.class.getName(), this.dir.toString());
+        Process child = pb.start();
+        int acked = 0;
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(child.getInputStream()))) {
+            String line;
+            while (acked < 2000 && (line = out.readLine()) != null) {
+                acked = Integer.parseInt(line);
+            }
+        }
+        child.destroyForcibly().waitFor();
+
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            int recovered = gs.getTotalGamesPlayed("Halo");
+            assertTrue(recovered >= acked);
+            assertEquals(recovered - 1, gs.getBestScore("Halo"));
+        }
+    }
+
+    /**
+     * Child process for {@link #testKilledProcessKeepsAcknowledgedScores()}:
+     * logs scores forever, printing the number acknowledged so far.
+     *
+     * @param args
+     *            the log directory
+     * @throws IOException
+     *             if the log cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                Path.of(args[0]));
+        for (int i = 0;; i++) {
+            gs.logGame("Halo", i);
+            System.out.println(i + 1);
+        }
+    }
+
+    // ---------- checkpoints ----------
+
+    @Test
+    public void testCheckpointTruncatesLog() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10);
+            gs.logGame("Chess", 5);
+            assertTrue(gs.logSize() > 0);
+            gs.checkpoint();
+            assertEquals(0, gs.logSize());
+            gs.logGame("Halo", 20);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(2, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(20, gs.getBestScore("Halo"));
+            assertEquals(1, gs.getTotalGamesPlayed("Chess"));
+        }
+    }
+
+    @Test
+    public void testCheckpointsFoldClearsAndEarlierCheckpoints()
+            throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10, "alice");
+            gs.checkpoint();
+            gs.logGame("Halo", 20, "bob");
+            gs.checkpoint();
+            gs.logGame("Go", 1);
+            gs.clear();
+            gs.logGame("Chess", 5, "carol");
+            gs.logGame("Chess", 7, "dave");
+            gs.checkpoint();
+            gs.logGame("Chess", 9, "carol");
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(0, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(0, gs.getUniquePlayers("Halo"));
+            assertEquals(0, gs.getTotalGamesPlayed("Go"));
+            assertEquals(3, gs.getTotalGamesPlayed("Chess"));
+            assertEquals(2, gs.getUniquePlayers("Chess"));
+        }
+    }
+
+    @Test
+    public void testCheckpointLeavesKernelCacheAlone() throws IOException {
+        GameStats2 kernel = new GameStats2(10);
+        try (DurableGameStats gs = new DurableGameStats(kernel, this.dir)) {
+            for (int i = 0; i < 200; i++) {
+                gs.logGame("Game" + i, i);
+            }
+            long misses = kernel.cacheMisses();
+            long evictions = kernel.evictions();
+            gs.checkpoint();
+            assertEquals(misses, kernel.cacheMisses());
+            assertEquals(evictions, kernel.evictions());
+        } finally {
+            kernel.close();
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(200, gs.getGames().size());
+            assertEquals(199, gs.getBestScore("Game199"));
+        }
+    }
+
+    @Test
+    public void testCheckpointsWhileWriting() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir, 64, 0, 1000)) {
+            for (int i = 0; i < 20_000; i++) {
+                gs.logGame("Game" + i % 100, i);
+            }
+            gs.checkpoint();
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(200, gs.getTotalGamesPlayed("Game7"));
+            assertEquals(19_999, gs.getBestScore("Game99"));
+        }
+        try (Stream<Path> files = Files.list(this.dir)) {
+            // the checkpoint, the lock file and the newest segment only
+            assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    public void testAutomaticCheckpoints() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir, 16, 0, 50)) {
+            for (int i = 0; i < 500; i++) {
+                gs.logGame("Halo", i);
+            }
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(500, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(499, gs.getBestScore("Halo"));
+        }
+    }
+
+    @Test
+    public void testPlayersSurviveReopenAndCheckpoint() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.logGame("Halo", 10, "alice");
+            gs.logGame("Halo", 20, "bob");
+            gs.checkpoint();
+            gs.logGame("Halo", 30, "carol");
+            gs.logGame("Halo", 40, "alice");
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats2(),
+                this.dir)) {
+            assertEquals(4, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(3, gs.getUniquePlayers("Halo"));
+        }
+    }
+
+    @Test
+    public void testMergedPlayersWithoutScoresSurviveCheckpoint()
+            throws IOException {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            sketch.add("player" + i);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            gs.mergePlayerSketch("Halo", sketch);
+            gs.checkpoint();
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats2(),
+                this.dir)) {
+            assertEquals(0, gs.getTotalGamesPlayed("Halo"));
+            assertEquals(100, gs.getUniquePlayers("Halo"), 3);
+
+            GameStats source = new GameStats1L();
+            source.mergePlayerSketch("Chess", sketch);
+            gs.transferFrom(source);
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            assertEquals(0, gs.getUniquePlayers("Halo"));
+            assertEquals(100, gs.getUniquePlayers("Chess"), 3);
+        }
+    }
+
+    @Test
+    public void testSparseSketchesCheckpointSmall() throws IOException {
+        HyperLogLog crowd = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            crowd.add("player" + i);
+        }
+        assertFalse(crowd.isSparse());
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            for (int i = 0; i < 1000; i++) {
+                gs.logGame("game" + i, i, "alice");
+            }
+            gs.checkpoint();
+            // dense registers alone would take 1000 * 2^11 bytes
+            assertTrue(Files.size(this.dir.resolve("gamestats.ckpt")) < 100
+                    * 1024);
+            gs.mergePlayerSketch("Crowd", crowd);
+            gs.checkpoint();
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(1, gs.getUniquePlayers("game" + i));
+            }
+            assertEquals(crowd.estimate(), gs.getUniquePlayers("Crowd"));
+        }
+    }
+
+    @Test
+    public void testNewInstanceIsPlainKernel() throws IOException {
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir);
+                ObservableGameStats observed = new ObservableGameStats(gs)) {
+            observed.logGame("Halo", 10);
+            ObservableGameStats fresh = observed.newInstance();
+            fresh.logGame("Chess", 5);
+            assertEquals(0, fresh.getTotalGamesPlayed("Halo"));
+            assertEquals(0, gs.getTotalGamesPlayed("Chess"));
+            fresh.close();
+        }
+    }
+
+    // ---------- group commit ----------
+
+    @Test
+    public void testConcurrentWriters()
+            throws IOException, InterruptedException {
+        final int writers = 8;
+        final int perWriter = 200;
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir, 64, 200, 0)) {
+            Thread[] threads = new Thread[writers];
+            for (int t = 0; t < writers; t++) {
+                String game = "Game" + t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < perWriter; i++) {
+                        gs.logGame(game, i);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        }
+        try (DurableGameStats gs = new DurableGameStats(new GameStats1L(),
+                this.dir)) {
+            for (int t = 0; t < writers; t++) {
+                assertEquals(perWriter, gs.getTotalGamesPlayed("Game" + t));
+            }
+        }
+    }
+}
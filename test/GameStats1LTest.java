@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import components.gamestats.GameStats1L;
+import components.set.Set;
 
 public class GameStats1LTest {
 
@@ -42,7 +43,7 @@ public class GameStats1LTest {
         this.gs.clear();
         assertEquals(0, this.gs.getTotalGamesPlayed("Fortnite"));
         assertEquals(-1, this.gs.getBestScore("Fortnite"));
-        assertTrue(this.gs.getGames().isEmpty());
+        assertEquals(0, this.gs.getGames().size());
     }
 
     // ---------- transferFrom ----------
@@ -58,4 +59,74 @@ public class GameStats1LTest {
         // source is empty
         assertEquals(0, src.getTotalGamesPlayed("Soccer"));
     }
+
+    // ---------- getGames / getGamesWithPrefix ----------
+
+    @Test
+    public void testGetGamesAfterLogging() {
+        this.gs.logGame("Valorant/Ranked/NA", 10);
+        this.gs.logGame("Halo", 3);
+        this.gs.logGame("Valorant/Ranked/NA", 12);
+        assertEquals(2, this.gs.getGames().size());
+        assertTrue(this.gs.getGames().contains("Halo"));
+    }
+
+    @Test
+    public void testGetGamesWithPrefix() {
+        this.gs.logGame("Valorant/Ranked/NA", 10);
+        this.gs.logGame("Valorant/Unrated/EU", 7);
+        this.gs.logGame("ValorantClone", 1);
+        this.gs.logGame("Halo", 3);
+        assertEquals(2, this.gs.getGamesWithPrefix("Valorant/").size());
+        assertTrue(this.gs.getGamesWithPrefix("Valorant/")
+                .contains("Valorant/Unrated/EU"));
+        assertEquals(3, this.gs.getGamesWithPrefix("Valorant").size());
+        assertEquals(4, this.gs.getGamesWithPrefix("").size());
+        assertEquals(0, this.gs.getGamesWithPrefix("Zelda").size());
+    }
+
+    @Test
+    public void testTransferFromMovesIndex() {
+        GameStats1L src = new GameStats1L();
+        src.logGame("Valorant/Ranked/NA", 2);
+        this.gs.transferFrom(src);
+        assertEquals(1, this.gs.getGamesWithPrefix("Valorant/").size());
+        assertEquals(0, src.getGamesWithPrefix("Valorant/").size());
+    }
+
+    // ---------- unique players ----------
+
+    @Test
+    public void testUniquePlayers() {
+        this.gs.logGame("Halo", 10, "alice");
+        this.gs.logGame("Halo", 20, "bob");
+        this.gs.logGame("Halo", 30, "alice");
+        this.gs.logGame("Chess", 5);
+        assertEquals(3, this.gs.getTotalGamesPlayed("Halo"));
+        assertEquals(2, this.gs.getUniquePlayers("Halo"));
+        assertEquals(0, this.gs.getUniquePlayers("Chess"));
+    }
+
+    @Test
+    public void testClearRemovesPlayers() {
+        this.gs.logGame("Halo", 10, "alice");
+        this.gs.clear();
+        assertEquals(0, this.gs.getUniquePlayers("Halo"));
+        assertTrue(this.gs.getPlayerSketch("Halo").isEmpty());
+    }
+
+    @Test
+    public void testGamesWithPlayersIncludesMergedOnly() {
+        HyperLogLog sketch = new HyperLogLog();
+        sketch.add("alice");
+        this.gs.mergePlayerSketch("Chess", sketch);
+        this.gs.mergePlayerSketch("Go", new HyperLogLog());
+        this.gs.logGame("Halo", 10, "bob");
+        this.gs.logGame("Tetris", 10);
+        Set<String> games = this.gs.getGamesWithPlayers();
+        assertEquals(2, games.size());
+        assertTrue(games.contains("Chess"));
+        assertTrue(games.contains("Halo"));
+        assertEquals(0, this.gs.getTotalGamesPlayed("Chess"));
+    }
 }
@@ -0,0 +1,225 @@
+package components.gamestats;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameStats2Test {
+
+    private Path dir;
+    private GameStats2 gs;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("gamestats2");
+        this.gs = new GameStats2(2, this.dir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.gs.close();
+        // fails unless close removed everything the instance wrote
+        Files.delete(this.dir);
+    }
+
+    private long entries() throws IOException {
+        try (Stream<Path> files = Files.list(this.dir)) {
+            return files.count();
+        }
+    }
+
+    // ---------- kernel behavior ----------
+
+    @Test
+    public void testLogGameMultipleScores() {
+        this.gs.logGame("Overwatch", 200);
+        this.gs.logGame("Overwatch", 400);
+        this.gs.logGame("Overwatch", 300);
+        assertEquals(3, this.gs.getTotalGamesPlayed("Overwatch"));
+        assertEquals(400, this.gs.getBestScore("Overwatch"));
+        assertEquals(300.0, this.gs.getAverageScore("Overwatch"), 0.001);
+    }
+
+    @Test
+    public void testMatchesGameStats1L() {
+        GameStats expected = new GameStats1L();
+        for (int i = 0; i < 300; i++) {
+            String game = "Game" + (i * 7 % 11);
+            this.gs.logGame(game, i);
+            expected.logGame(game, i);
+        }
+        assertEquals(expected, this.gs);
+        for (String g : expected.getGames()) {
+            assertEquals(expected.getAllScores(g), this.gs.getAllScores(g));
+        }
+    }
+
+    // ---------- paging ----------
+
+    @Test
+    public void testColdGameIsPagedBackIn() {
+        this.gs.logGame("A", 1);
+        this.gs.logGame("A", 2);
+        this.gs.logGame("B", 3);
+        this.gs.logGame("C", 4);
+        assertEquals(1, this.gs.evictions());
+
+        // aggregates of the paged-out game need no page-in
+        long misses = this.gs.cacheMisses();
+        assertEquals(2, this.gs.getBestScore("A"));
+        assertEquals(1.5, this.gs.getAverageScore("A"), 0.001);
+        assertEquals(misses, this.gs.cacheMisses());
+
+        this.gs.logGame("A", 5);
+        assertEquals(misses + 1, this.gs.cacheMisses());
+        assertEquals(List.of(1, 2, 5), this.gs.getAllScores("A"));
+        assertTrue(this.gs.averagePageInNanos() > 0);
+    }
+
+    @Test
+    public void testRepeatedEvictionAppendsOnlyNewScores() {
+        for (int round = 0; round < 5; round++) {
+            for (String g : new String[] { "A", "B", "C" }) {
+                this.gs.logGame(g, round);
+            }
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), this.gs.getAllScores("A"));
+        assertEquals(List.of(0, 1, 2, 3, 4), this.gs.getAllScores("B"));
+        assertEquals(List.of(0, 1, 2, 3, 4), this.gs.getAllScores("C"));
+    }
+
+    @Test
+    public void testDirectoryCreatedOnFirstPageOut() throws IOException {
+        this.gs.logGame("A", 1);
+        this.gs.logGame("B", 2);
+        assertEquals(0, this.entries());
+        this.gs.logGame("C", 3);
+        assertEquals(1, this.entries());
+    }
+
+    @Test
+    public void testRepeatedPageOutsShareOneSegment() throws IOException {
+        GameStats expected = new GameStats1L();
+        // every score evicts the game logged two scores earlier, so each
+        // game is paged out thousands of times and its runs are rewritten
+        for (int i = 0; i < 30_000; i++) {
+            String game = "Game" + i % 3;
+            this.gs.logGame(game, i);
+            expected.logGame(game, i);
+        }
+        for (String g : expected.getGames()) {
+            assertEquals(expected.getAllScores(g), this.gs.getAllScores(g));
+        }
+        try (Stream<Path> dirs = Files.list(this.dir)) {
+            Path scores = dirs.findFirst().get();
+            try (Stream<Path> files = Files.list(scores)) {
+                assertEquals(1, files.count());
+            }
+        }
+    }
+
+    @Test
+    public void testInstancesShareParentDirectory() {
+        this.gs.logGame("A", 7);
+        this.gs.logGame("A", 8);
+        this.gs.logGame("B", 1);
+        this.gs.logGame("C", 1);
+        try (GameStats2 other = new GameStats2(1, this.dir)) {
+            other.logGame("X", 100);
+            other.logGame("Y", 1);
+            assertEquals(List.of(100), other.getAllScores("X"));
+        }
+        assertEquals(List.of(7, 8), this.gs.getAllScores("A"));
+    }
+
+    @Test
+    public void testHitRate() {
+        this.gs.logGame("A", 1);
+        // the first score of a new game is not a cache access
+        assertEquals(0, this.gs.cacheHits());
+        this.gs.logGame("A", 2);
+        this.gs.getAllScores("A");
+        assertEquals(2, this.gs.cacheHits());
+        assertEquals(0, this.gs.cacheMisses());
+        assertEquals(1.0, this.gs.cacheHitRate(), 0.001);
+    }
+
+    @Test
+    public void testNewGamesAreNotHits() {
+        for (int i = 0; i < 100; i++) {
+            this.gs.logGame("Game" + i, i);
+        }
+        assertEquals(98, this.gs.evictions());
+        assertEquals(0, this.gs.cacheHits());
+        assertEquals(0, this.gs.cacheMisses());
+        assertEquals(0.0, this.gs.cacheHitRate(), 0.001);
+        this.gs.logGame("Game0", 1);
+        assertEquals(1, this.gs.cacheMisses());
+        assertEquals(0.0, this.gs.cacheHitRate(), 0.001);
+    }
+
+    // ---------- prefix rollups ----------
+
+    @Test
+    public void testPrefixRollupsWithoutPaging() {
+        this.gs.logGame("Valorant/Ranked/NA", 10);
+        this.gs.logGame("Valorant/Unrated/EU", 30);
+        this.gs.logGame("Halo", 1);
+        this.gs.logGame("Chess", 2);
+        long misses = this.gs.cacheMisses();
+        assertEquals(2, this.gs.getGamesWithPrefix("Valorant/").size());
+        assertEquals(2, this.gs.getTotalGamesPlayedWithPrefix("Valorant/"));
+        assertEquals(30, this.gs.getBestScoreWithPrefix("Valorant/"));
+        assertEquals(20.0, this.gs.getAverageScoreWithPrefix("Valorant/"),
+                0.001);
+        assertEquals(misses, this.gs.cacheMisses());
+    }
+
+    // ---------- clear / transferFrom ----------
+
+    @Test
+    public void testClearDeletesScoreFiles() throws IOException {
+        this.gs.logGame("A", 1);
+        this.gs.logGame("B", 2);
+        this.gs.logGame("C", 3);
+        this.gs.clear();
+        assertEquals(0, this.gs.getGames().size());
+        assertEquals(-1, this.gs.getBestScore("A"));
+        assertEquals(0, this.entries());
+    }
+
+    @Test
+    public void testTransferFrom() throws IOException {
+        GameStats2 src = new GameStats2(2, this.dir);
+        src.logGame("A", 1);
+        src.logGame("B", 2);
+        src.logGame("C", 3);
+        this.gs.transferFrom(src);
+        assertEquals(List.of(1), this.gs.getAllScores("A"));
+        assertEquals(0, src.getTotalGamesPlayed("A"));
+        // the emptied source does not get a directory of its own
+        assertEquals(1, this.entries());
+        src.close();
+    }
+
+    // ---------- unique players ----------
+
+    @Test
+    public void testUniquePlayersSurvivePaging() {
+        this.gs.logGame("A", 1, "alice");
+        this.gs.logGame("A", 2, "bob");
+        this.gs.logGame("B", 3, "carol");
+        this.gs.logGame("C", 4, "dave");
+        assertEquals(1, this.gs.evictions());
+        assertEquals(2, this.gs.getUniquePlayers("A"));
+        assertEquals(List.of(1, 2), this.gs.getAllScores("A"));
+    }
+}
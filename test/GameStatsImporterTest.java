@@ -0,0 +1,95 @@
+package components.gamestats;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameStatsImporterTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = Files.createTempFile("matchlog", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    private void write(String contents) throws IOException {
+        Files.write(this.file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ---------- parsing ----------
+
+    @Test
+    public void testImportSimpleLog() throws IOException {
+        this.write("Halo,10\nChess,5\nHalo,30\n");
+        GameStats gs = new GameStats1L();
+        GameStatsImporter.Result r = GameStatsImporter.importFile(this.file,
+                gs, 1);
+        assertEquals(3, r.rows());
+        assertEquals(0, r.rejected());
+        assertEquals(2, gs.getTotalGamesPlayed("Halo"));
+        assertEquals(30, gs.getBestScore("Halo"));
+        assertEquals(5, gs.getBestScore("Chess"));
+    }
+
+    @Test
+    public void testImportOddLines() throws IOException {
+        this.write("Valorant/Ranked/NA,7\r\n\nNo score\nBad,-3\n,4\n"
+                + "Tom Clancy's, The Division,12\nLast,8");
+        GameStats gs = new GameStats1L();
+        GameStatsImporter.Result r = GameStatsImporter.importFile(this.file,
+                gs, 2);
+        assertEquals(3, r.rows());
+        assertEquals(3, r.rejected());
+        assertEquals(7, gs.getBestScore("Valorant/Ranked/NA"));
+        assertEquals(12, gs.getBestScore("Tom Clancy's, The Division"));
+        assertEquals(8, gs.getBestScore("Last"));
+    }
+
+    @Test
+    public void testImportEmptyFile() throws IOException {
+        GameStats gs = new GameStats1L();
+        GameStatsImporter.Result r = GameStatsImporter.importFile(this.file,
+                gs, 4);
+        assertEquals(0, r.rows());
+        assertEquals(0, gs.getGames().size());
+    }
+
+    // ---------- parallel import matches sequential ----------
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        GameStats expected = new GameStats1L();
+        for (int i = 0; i < 5000; i++) {
+            String game = "Game" + (i * 7919 % 37);
+            int score = i * 31 % 1000;
+            sb.append(game).append(',').append(score).append('\n');
+            expected.logGame(game, score);
+        }
+        this.write(sb.toString());
+
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            GameStats gs = new GameStats1L();
+            GameStatsImporter.Result r = GameStatsImporter
+                    .importFile(this.file, gs, threads);
+            assertEquals(5000, r.rows());
+            assertEquals(expected, gs);
+            for (String g : expected.getGames()) {
+                assertEquals(expected.getAllScores(g), gs.getAllScores(g));
+            }
+        }
+    }
+}
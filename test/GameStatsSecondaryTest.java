@@ -35,6 +35,14 @@ public class GameStatsSecondaryTest {
         assertEquals(100.0, this.gs.getAverageScore("Chess"), 0.001);
     }
 
+    @Test
+    public void testAverageDoesNotOverflow() {
+        this.gs.addScore("Chess", Integer.MAX_VALUE);
+        this.gs.addScore("Chess", Integer.MAX_VALUE - 2);
+        assertEquals(Integer.MAX_VALUE - 1.0,
+                this.gs.getAverageScore("Chess"), 0.001);
+    }
+
     // ---------- getAllScores ----------
 
     @Test
@@ -61,4 +69,27 @@ public class GameStatsSecondaryTest {
         assertTrue(s.contains("Halo"));
         assertTrue(s.contains("99"));
     }
+
+    // ---------- prefix rollups ----------
+
+    @Test
+    public void testPrefixRollups() {
+        this.gs.addScore("Valorant/Ranked/NA", 10);
+        this.gs.addScore("Valorant/Ranked/NA", 20);
+        this.gs.addScore("Valorant/Unrated/EU", 30);
+        this.gs.addScore("Halo", 1000);
+        assertEquals(3, this.gs.getTotalGamesPlayedWithPrefix("Valorant/"));
+        assertEquals(30, this.gs.getBestScoreWithPrefix("Valorant/"));
+        assertEquals(20.0, this.gs.getAverageScoreWithPrefix("Valorant/"),
+                0.001);
+    }
+
+    @Test
+    public void testPrefixRollupsNoMatch() {
+        this.gs.addScore("Halo", 5);
+        assertEquals(0, this.gs.getTotalGamesPlayedWithPrefix("Valorant/"));
+        assertEquals(-1, this.gs.getBestScoreWithPrefix("Valorant/"));
+        assertEquals(-1.0, this.gs.getAverageScoreWithPrefix("Valorant/"),
+                0.001);
+    }
 }
@@ -0,0 +1,179 @@
+package components.gamestats;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    /**
+     * Allowed relative error: three standard errors at the default precision.
+     */
+    private static final double TOLERANCE = 3 * 1.04
+            / Math.sqrt(1 << HyperLogLog.DEFAULT_PRECISION);
+
+    private static void assertClose(long exact, long estimate) {
+        double error = Math.abs(estimate - exact) / (double) exact;
+        assertTrue("exact " + exact + ", estimate " + estimate,
+                error <= TOLERANCE);
+    }
+
+    // ---------- accuracy ----------
+
+    @Test
+    public void testEmpty() {
+        HyperLogLog hll = new HyperLogLog();
+        assertTrue(hll.isEmpty());
+        assertEquals(0, hll.estimate());
+    }
+
+    @Test
+    public void testDuplicatesCountOnce() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 10_000; i++) {
+            hll.add("player" + i % 10);
+        }
+        assertEquals(10, hll.estimate());
+    }
+
+    @Test
+    public void testAccuracyAcrossCardinalities() {
+        for (int exact : new int[] { 100, 1_000, 10_000, 100_000,
+                1_000_000 }) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < exact; i++) {
+                hll.add("player-" + i);
+            }
+            assertClose(exact, hll.estimate());
+        }
+    }
+
+    @Test
+    public void testSmallPrecisionsAreUnbiased() {
+        for (int p = HyperLogLog.MIN_PRECISION; p <= 7; p++) {
+            int m = 1 << p;
+            int exact = 20 * m;
+            double total = 0;
+            int trials = 400;
+            for (int t = 0; t < trials; t++) {
+                HyperLogLog hll = new HyperLogLog(p);
+                for (int i = 0; i < exact; i++) {
+                    hll.add("t" + t + "-" + i);
+                }
+                total += hll.estimate();
+            }
+            double mean = total / trials;
+            assertEquals("precision " + p, exact, mean, 0.04 * exact);
+        }
+    }
+
+    // ---------- sparse sketches ----------
+
+    @Test
+    public void testSparseUntilQuarterOfRegistersSet() {
+        HyperLogLog hll = new HyperLogLog();
+        int limit = (1 << HyperLogLog.DEFAULT_PRECISION) / 4;
+        int i = 0;
+        while (hll.isSparse()) {
+            int set = 0;
+            for (byte r : hll.registers()) {
+                if (r != 0) {
+                    set++;
+                }
+            }
+            assertTrue(set <= limit);
+            hll.add("player-" + i++);
+        }
+        assertTrue(i > limit);
+        assertClose(i, hll.estimate());
+    }
+
+    @Test
+    public void testSparseAndDenseAgree() {
+        HyperLogLog few = new HyperLogLog();
+        HyperLogLog many = new HyperLogLog();
+        HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            few.add("p" + i);
+            all.add("p" + i);
+        }
+        for (int i = 50; i < 20_000; i++) {
+            many.add("p" + i);
+            all.add("p" + i);
+        }
+        assertTrue(few.isSparse());
+        assertFalse(many.isSparse());
+
+        HyperLogLog rebuilt = new HyperLogLog(few.precision(),
+                few.registers());
+        assertTrue(rebuilt.isSparse());
+        assertEquals(few, rebuilt);
+        assertEquals(few.hashCode(), rebuilt.hashCode());
+        assertEquals(few.estimate(), rebuilt.estimate());
+
+        HyperLogLog a = few.copy();
+        a.merge(many);
+        HyperLogLog b = many.copy();
+        b.merge(few);
+        assertEquals(all, a);
+        assertEquals(all, b);
+        assertEquals(all.estimate(), a.estimate());
+    }
+
+    // ---------- merge ----------
+
+    @Test
+    public void testMergeIsUnion() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 60_000; i++) {
+            a.add("player-" + i);
+        }
+        for (int i = 40_000; i < 100_000; i++) {
+            b.add("player-" + i);
+        }
+        a.merge(b);
+        assertClose(100_000, a.estimate());
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        HyperLogLog a = new HyperLogLog();
+        a.add("x");
+        HyperLogLog b = a.copy();
+        b.add("y");
+        assertEquals(1, a.estimate());
+        assertEquals(2, b.estimate());
+    }
+
+    // ---------- through GameStats ----------
+
+    @Test
+    public void testUniquePlayersMatchExactCount() {
+        GameStats gs = new GameStats1L();
+        Set<String> exact = new HashSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            String player = "p" + (i * 7919 % 20_011);
+            gs.logGame("Halo", i % 100, player);
+            exact.add(player);
+        }
+        assertEquals(50_000, gs.getTotalGamesPlayed("Halo"));
+        assertClose(exact.size(), gs.getUniquePlayers("Halo"));
+    }
+
+    @Test
+    public void testSketchesMergeAcrossInstances() {
+        GameStats east = new GameStats1L();
+        GameStats west = new GameStats2();
+        for (int i = 0; i < 30_000; i++) {
+            east.logGame("Halo", 1, "p" + i);
+            west.logGame("Halo", 1, "p" + (i + 20_000));
+        }
+        east.mergePlayerSketch("Halo", west.getPlayerSketch("Halo"));
+        assertClose(50_000, east.getUniquePlayers("Halo"));
+        west.clear();
+    }
+}
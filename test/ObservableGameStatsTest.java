@@ -0,0 +1,211 @@
+package components.gamestats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ObservableGameStatsTest {
+
+    private ObservableGameStats gs;
+    private List<GameStatsEvent> received;
+    private GameStatsListener recorder;
+
+    @Before
+    public void setUp() {
+        this.gs = new ObservableGameStats(new GameStats1L(),
+                new int[] { 2, 3 });
+        this.received = Collections.synchronizedList(new ArrayList<>());
+        this.recorder = this.received::addAll;
+    }
+
+    @After
+    public void tearDown() {
+        this.gs.close();
+    }
+
+    private List<GameStatsEvent.Kind> kinds() {
+        List<GameStatsEvent.Kind> result = new ArrayList<>();
+        for (GameStatsEvent e : this.received) {
+            result.add(e.kind());
+        }
+        return result;
+    }
+
+    // ---------- event kinds ----------
+
+    @Test
+    public void testScoreLoggedForEveryScore() throws InterruptedException {
+        this.gs.subscribe(this.recorder,
+                EnumSet.of(GameStatsEvent.Kind.SCORE_LOGGED));
+        this.gs.logGame("Halo", 10);
+        this.gs.logGame("Halo", 5);
+        this.gs.flush();
+        assertEquals(2, this.received.size());
+        assertEquals(5, this.received.get(1).score());
+        assertEquals(2, this.received.get(1).plays());
+    }
+
+    @Test
+    public void testNewBest() throws InterruptedException {
+        this.gs.subscribe(this.recorder,
+                EnumSet.of(GameStatsEvent.Kind.NEW_BEST));
+        this.gs.logGame("Halo", 10);
+        this.gs.logGame("Halo", 5);
+        this.gs.logGame("Halo", 20);
+        this.gs.flush();
+        assertEquals(2, this.received.size());
+        assertEquals(-1, this.received.get(0).previousBest());
+        assertEquals(10, this.received.get(1).previousBest());
+        assertEquals(20, this.received.get(1).score());
+    }
+
+    @Test
+    public void testMilestones() throws InterruptedException {
+        this.gs.subscribe(this.recorder,
+                EnumSet.of(GameStatsEvent.Kind.MILESTONE));
+        for (int i = 0; i < 5; i++) {
+            this.gs.logGame("Halo", i);
+        }
+        this.gs.flush();
+        assertEquals(2, this.received.size());
+        assertEquals(2, this.received.get(0).plays());
+        assertEquals(3, this.received.get(1).plays());
+    }
+
+    @Test
+    public void testAllKindsInOrder() throws InterruptedException {
+        this.gs.subscribe(this.recorder);
+        this.gs.logGame("Halo", 10);
+        this.gs.logGame("Halo", 20);
+        this.gs.flush();
+        assertEquals(List.of(GameStatsEvent.Kind.SCORE_LOGGED,
+                GameStatsEvent.Kind.NEW_BEST,
+                GameStatsEvent.Kind.SCORE_LOGGED,
+                GameStatsEvent.Kind.NEW_BEST,
+                GameStatsEvent.Kind.MILESTONE), this.kinds());
+    }
+
+    // ---------- subscriptions ----------
+
+    @Test
+    public void testUnsubscribe() throws InterruptedException {
+        this.gs.subscribe(this.recorder);
+        this.gs.logGame("Halo", 10);
+        this.gs.flush();
+        this.gs.unsubscribe(this.recorder);
+        int before = this.received.size();
+        this.gs.logGame("Halo", 20);
+        this.gs.flush();
+        assertEquals(before, this.received.size());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopOthers()
+            throws InterruptedException {
+        this.gs.subscribe(events -> {
+            throw new IllegalStateException("boom");
+        }, EnumSet.of(GameStatsEvent.Kind.SCORE_LOGGED));
+        this.gs.subscribe(this.recorder,
+                EnumSet.of(GameStatsEvent.Kind.SCORE_LOGGED));
+        this.gs.logGame("Halo", 10);
+        this.gs.flush();
+        assertEquals(1, this.received.size());
+        assertEquals(1, this.gs.listenerFailures());
+    }
+
+    @Test
+    public void testFlushRacingCloseReturns() throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            this.gs.close();
+            this.gs = new ObservableGameStats(new GameStats1L());
+            this.gs.subscribe(this.recorder);
+            this.gs.logGame("Halo", i);
+            CountDownLatch flushed = new CountDownLatch(1);
+            ObservableGameStats target = this.gs;
+            Thread flusher = new Thread(() -> {
+                try {
+                    target.flush();
+                    flushed.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            flusher.start();
+            this.gs.close();
+            assertTrue(flushed.await(5, TimeUnit.SECONDS));
+            flusher.join();
+        }
+    }
+
+    @Test
+    public void testFlushAfterCloseReturns() throws InterruptedException {
+        this.gs.subscribe(this.recorder,
+                EnumSet.of(GameStatsEvent.Kind.SCORE_LOGGED));
+        this.gs.logGame("Halo", 10);
+        this.gs.close();
+        this.gs.flush();
+        assertEquals(1, this.received.size());
+    }
+
+    // ---------- overflow ----------
+
+    @Test
+    public void testFullQueueDropsAndCoalesces() throws InterruptedException {
+        this.gs.close();
+        this.gs = new ObservableGameStats(new GameStats1L(),
+                new int[] { 2, 3 }, 4);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        this.gs.subscribe(events -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.received.addAll(events);
+        });
+        this.gs.logGame("Halo", 1);
+        entered.await();
+        for (int score = 2; score <= 21; score++) {
+            this.gs.logGame("Halo", score);
+        }
+        assertEquals(4, this.gs.queueDepth());
+        assertTrue(this.gs.droppedEvents() > 0);
+        release.countDown();
+        this.gs.flush();
+
+        // 21 SCORE_LOGGED, 21 NEW_BEST and MILESTONE at 2 and 3 plays
+        assertEquals(44, this.received.size() + this.gs.droppedEvents());
+        int best = -1;
+        for (GameStatsEvent e : this.received) {
+            if (e.kind() == GameStatsEvent.Kind.NEW_BEST) {
+                best = Math.max(best, e.score());
+            }
+        }
+        assertEquals(21, best);
+        assertEquals(0, this.gs.queueDepth());
+    }
+
+    // ---------- statistics ----------
+
+    @Test
+    public void testStatisticsDelegated() {
+        this.gs.logGame("Halo", 10);
+        this.gs.logGame("Halo", 30);
+        assertEquals(2, this.gs.getTotalGamesPlayed("Halo"));
+        assertEquals(30, this.gs.getBestScore("Halo"));
+        assertEquals(20.0, this.gs.getAverageScore("Halo"), 0.001);
+        this.gs.clear();
+        assertEquals(-1, this.gs.getBestScore("Halo"));
+    }
+}
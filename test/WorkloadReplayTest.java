@@ -0,0 +1,172 @@
+package components.gamestats;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import components.gamestats.WorkloadTrace.Operation;
+
+public class WorkloadReplayTest {
+
+    private static WorkloadTrace small(long seed) {
+        return new WorkloadGenerator(seed).games(90).players(500)
+                .readFraction(0.3).generate(20_000);
+    }
+
+    // ---------- generator ----------
+
+    @Test
+    public void testGenerationIsDeterministic() {
+        assertEquals(small(7), small(7));
+        assertFalse(small(7).equals(small(8)));
+    }
+
+    @Test
+    public void testReadFraction() {
+        WorkloadTrace trace = small(1);
+        int logs = trace.count(Operation.LOG);
+        assertEquals(0.7, logs / (double) trace.size(), 0.02);
+        for (Operation op : Operation.values()) {
+            assertTrue(trace.count(op) > 0);
+        }
+    }
+
+    @Test
+    public void testZipfPopularity() {
+        WorkloadTrace trace = new WorkloadGenerator(1).games(1000)
+                .zipfExponent(1.2).generate(50_000);
+        int[] hits = new int[trace.gameCount()];
+        for (int i = 0; i < trace.size(); i++) {
+            hits[trace.gameId(i)]++;
+        }
+        int top = 0;
+        for (int h : hits) {
+            top = Math.max(top, h);
+        }
+        // rank 1 gets 1 / sum(k^-1.2) over 1000 ranks, about 23%
+        assertEquals(0.23, top / (double) trace.size(), 0.01);
+    }
+
+    @Test
+    public void testBurstsRaiseArrivalRate() {
+        WorkloadTrace calm = new WorkloadGenerator(3).rate(10_000)
+                .bursts(1, 1, 1).generate(50_000);
+        WorkloadTrace bursty = new WorkloadGenerator(3).rate(10_000)
+                .bursts(20, 1000, 1000).generate(50_000);
+        assertEquals(5.0, calm.arrivalNanos(calm.size() - 1) / 1e9, 0.2);
+        assertTrue(bursty.arrivalNanos(bursty.size() - 1)
+                < calm.arrivalNanos(calm.size() - 1) * 0.7);
+    }
+
+    // ---------- trace files ----------
+
+    @Test
+    public void testWriteReadRoundTrip() throws IOException {
+        Path file = Files.createTempFile("workload", ".trace");
+        try {
+            WorkloadTrace trace = small(5);
+            trace.write(file);
+            assertEquals(trace, WorkloadTrace.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadRejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("workload", ".trace");
+        try {
+            Files.writeString(file, "Halo,10\n");
+            WorkloadTrace.read(file);
+            fail("read a match log as a trace");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a workload trace"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Writes a one-game trace with the given header counts and a single
+     * entry by {@code player}, and returns the message {@code read} fails
+     * with.
+     */
+    private static String readFailure(int names, int size, int player)
+            throws IOException {
+        Path file = Files.createTempFile("workload", ".trace");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    Files.newOutputStream(file))) {
+                out.writeInt(0x47535754);
+                out.writeInt(1);
+                out.writeInt(names);
+                out.writeUTF("Halo");
+                out.writeInt(size);
+                out.writeByte(Operation.LOG.ordinal());
+                out.writeInt(0);
+                out.writeInt(10);
+                out.writeInt(player);
+                out.writeLong(0);
+            }
+            WorkloadTrace.read(file);
+            fail("read a corrupt trace");
+            return null;
+        } catch (IOException e) {
+            return e.getMessage();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadRejectsCorruptCounts() throws IOException {
+        assertTrue(readFailure(-1, 1, 7).contains("corrupt name table size"));
+        assertTrue(readFailure(Integer.MAX_VALUE, 1, 7)
+                .contains("corrupt name table size"));
+        assertTrue(readFailure(1, -1, 7).contains("corrupt entry count"));
+        assertTrue(readFailure(1, Integer.MAX_VALUE, 7)
+                .contains("corrupt entry count"));
+        assertTrue(readFailure(1, 1, -2).contains("corrupt entry 0"));
+    }
+
+    // ---------- replay ----------
+
+    @Test
+    public void testReplayIsDeterministicAcrossKernels() {
+        WorkloadTrace trace = small(11);
+        GameStats expected = new GameStats1L();
+        WorkloadReplay.Result a = WorkloadReplay.run(trace, expected, false);
+        GameStats2 actual = new GameStats2(8);
+        WorkloadReplay.Result b = WorkloadReplay.run(trace, actual, false);
+        assertEquals(a.checksum(), b.checksum());
+        assertEquals(expected, actual);
+        actual.close();
+    }
+
+    @Test
+    public void testReplayReportsEveryOperation() {
+        WorkloadTrace trace = small(2);
+        WorkloadReplay.Result r = WorkloadReplay.run(trace, new GameStats1L(),
+                false);
+        assertEquals(trace.size(), r.operations());
+        assertEquals(trace.count(Operation.LOG), r.operations(Operation.LOG));
+        assertTrue(r.throughput() > 0);
+        assertTrue(r.latency(50) <= r.latency(99));
+        assertTrue(r.latency(99) <= r.latency(100));
+        assertTrue(r.peakHeapBytes() > 0);
+    }
+
+    @Test
+    public void testPacedReplayFollowsArrivals() {
+        WorkloadTrace trace = new WorkloadGenerator(4).rate(100_000)
+                .bursts(1, 1, 1).generate(5_000);
+        WorkloadReplay.Result r = WorkloadReplay.run(trace, new GameStats1L(),
+                true);
+        assertTrue(r.nanos() >= trace.arrivalNanos(trace.size() - 1));
+    }
+}